@@ -0,0 +1,292 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Decides which requests the server works on when it is busy. A request is
+ * turned away right away instead of being worked on late when:
+ *
+ * <ul>
+ * <li>it waited in the Jetty queue longer than the queue time limit (503), which
+ * is only known when the server runs on a {@link TimedThreadPool}</li>
+ * <li>the same client already has too many requests in progress (429)</li>
+ * <li>it is expensive, like browsing the index or adding a seed, and every
+ * expensive slot is taken (503)</li>
+ * </ul>
+ */
+public class AdmissionFilter implements Filter {
+
+	/**
+	 * A thread pool that records how long each job waited in its queue. Jetty
+	 * parses and handles a request on the thread that runs the job for its
+	 * connection, so the wait is kept with that thread while the job runs for
+	 * the filter to read. Jobs that Jetty runs without queueing them never wait
+	 * and are not timed.
+	 */
+	public static class TimedThreadPool extends QueuedThreadPool {
+
+		/**
+		 * A job that remembers when it was queued
+		 */
+		private static class Timed implements Runnable {
+
+			/**
+			 * The job to run
+			 */
+			private final Runnable job;
+
+			/**
+			 * When the job was queued in nanoseconds
+			 */
+			private final long queued;
+
+			/**
+			 * Initializes a timed job
+			 *
+			 * @param job the job to run
+			 */
+			public Timed(Runnable job) {
+				this.job = job;
+				this.queued = System.nanoTime();
+			}
+
+			@Override
+			public void run() {
+				WAITED.set(System.nanoTime() - queued);
+				try {
+					job.run();
+				} finally {
+					WAITED.remove();
+				}
+			}
+
+			@Override
+			public String toString() {
+				return job.toString();
+			}
+		}
+
+		/**
+		 * Initializes the pool
+		 *
+		 * @param maxThreads  the most threads to use
+		 * @param minThreads  the threads to keep even when idle
+		 * @param idleTimeout how long an idle thread above the minimum is kept in
+		 *                    milliseconds
+		 * @param queue       the queue jobs wait in for a thread
+		 */
+		public TimedThreadPool(int maxThreads, int minThreads, int idleTimeout, BlockingQueue<Runnable> queue) {
+			super(maxThreads, minThreads, idleTimeout, queue);
+		}
+
+		@Override
+		public void execute(Runnable job) {
+			super.execute(new Timed(job));
+		}
+	}
+
+	/**
+	 * The default number of expensive requests that can run at once
+	 */
+	public static final int DEFAULT_EXPENSIVE = 2;
+
+	/**
+	 * The default number of requests a single client can have in progress
+	 */
+	public static final int DEFAULT_PER_CLIENT = 8;
+
+	/**
+	 * The default longest time in milliseconds a request may wait in the queue
+	 */
+	public static final long DEFAULT_QUEUE_MILLIS = 500;
+
+	/**
+	 * How long the job running on this thread waited in the queue in nanoseconds,
+	 * if it was queued by a {@link TimedThreadPool}
+	 */
+	private static final ThreadLocal<Long> WAITED = new ThreadLocal<Long>();
+
+	/**
+	 * The number of requests in progress for each client address
+	 */
+	private final ConcurrentHashMap<String, Integer> clients;
+
+	/**
+	 * The slots for expensive requests
+	 */
+	private final Semaphore expensive;
+
+	/**
+	 * The servlet paths that are expensive to serve
+	 */
+	private final Set<String> expensivePaths;
+
+	/**
+	 * The number of requests a single client can have in progress
+	 */
+	private final int maxPerClient;
+
+	/**
+	 * The longest time in milliseconds a request may wait in the queue
+	 */
+	private final long maxQueueMillis;
+
+	/**
+	 * The number of requests turned away because the server was too busy
+	 */
+	private final AtomicLong shed;
+
+	/**
+	 * The number of requests turned away because their client had too many in
+	 * progress
+	 */
+	private final AtomicLong throttled;
+
+	/**
+	 * Initializes the filter with the default limits
+	 *
+	 * @param expensivePaths the servlet paths that are expensive to serve
+	 */
+	public AdmissionFilter(Set<String> expensivePaths) {
+		this(expensivePaths, DEFAULT_PER_CLIENT, DEFAULT_QUEUE_MILLIS, DEFAULT_EXPENSIVE);
+	}
+
+	/**
+	 * Initializes the filter
+	 *
+	 * @param expensivePaths the servlet paths that are expensive to serve
+	 * @param maxPerClient   the number of requests a single client can have in
+	 *                       progress
+	 * @param maxQueueMillis the longest time in milliseconds a request may wait in
+	 *                       the queue
+	 * @param maxExpensive   the number of expensive requests that can run at once
+	 */
+	public AdmissionFilter(Set<String> expensivePaths, int maxPerClient, long maxQueueMillis, int maxExpensive) {
+		this.expensivePaths = Set.copyOf(expensivePaths);
+		this.maxPerClient = maxPerClient;
+		this.maxQueueMillis = maxQueueMillis;
+		this.expensive = new Semaphore(maxExpensive);
+		this.clients = new ConcurrentHashMap<String, Integer>();
+		this.shed = new AtomicLong();
+		this.throttled = new AtomicLong();
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+			throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest) servletRequest;
+		HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+		if (queueMillis() > maxQueueMillis) {
+			shed.incrementAndGet();
+			reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The server is busy, try again shortly.");
+			return;
+		}
+
+		String client = request.getRemoteAddr();
+		if (clients.merge(client, 1, Integer::sum) > maxPerClient) {
+			release(client);
+			throttled.incrementAndGet();
+			reject(response, HttpServletResponse.SC_TOO_MANY_REQUESTS, "Too many requests at once, try again shortly.");
+			return;
+		}
+		try {
+			if (!isExpensive(request)) {
+				chain.doFilter(request, response);
+			} else if (expensive.tryAcquire()) {
+				try {
+					chain.doFilter(request, response);
+				} finally {
+					expensive.release();
+				}
+			} else {
+				shed.incrementAndGet();
+				reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The server is busy, try again shortly.");
+			}
+		} finally {
+			release(client);
+		}
+	}
+
+	/**
+	 * @param request the request to check
+	 * @return true if the request is for an expensive path or adds a seed
+	 */
+	private boolean isExpensive(HttpServletRequest request) {
+		String seed = request.getParameter("seed");
+		return expensivePaths.contains(request.getServletPath()) || ((seed != null) && !seed.isBlank());
+	}
+
+	/**
+	 * @return the number of requests turned away because the server was too busy
+	 */
+	public long numShed() {
+		return shed.get();
+	}
+
+	/**
+	 * @return the number of requests turned away because their client had too many
+	 *         in progress
+	 */
+	public long numThrottled() {
+		return throttled.get();
+	}
+
+	/**
+	 * Returns how long the job handling the request waited in the queue for a
+	 * thread. The wait is only counted for the first request the job handles,
+	 * since any others on the same connection were not held up by the queue.
+	 *
+	 * @return the time in milliseconds, or 0 if the job was not queued or it is
+	 *         not known
+	 */
+	private static long queueMillis() {
+		Long waited = WAITED.get();
+		if (waited == null) {
+			return 0;
+		}
+		WAITED.set(0L);
+		return TimeUnit.NANOSECONDS.toMillis(waited);
+	}
+
+	/**
+	 * Sends a short error that tells the client to try again in a second
+	 *
+	 * @param response the response to send
+	 * @param status   the status code to send
+	 * @param message  the message to send
+	 * @throws IOException if unable to write the response
+	 */
+	private static void reject(HttpServletResponse response, int status, String message) throws IOException {
+		response.setStatus(status);
+		response.setHeader("Retry-After", "1");
+		response.setContentType("text/plain");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().println(message);
+	}
+
+	/**
+	 * Marks one request from the client as finished
+	 *
+	 * @param client the address of the client
+	 */
+	private void release(String client) {
+		clients.computeIfPresent(client, (address, active) -> active == 1 ? null : active - 1);
+	}
+}
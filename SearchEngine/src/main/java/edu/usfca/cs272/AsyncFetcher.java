@@ -0,0 +1,361 @@
+package edu.usfca.cs272;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches HTML without blocking a thread per request. Requests are sent with
+ * {@link HttpClient#sendAsync}, which multiplexes every open connection on a
+ * single selector thread, and completed responses are handed off on a small
+ * pool of callback threads. The crawler can then keep hundreds of fetches in
+ * flight while its work queue threads only clean and stem pages.
+ *
+ * <p>
+ * The results are the same as {@link HtmlFetcher#fetch(URL, int)}: the HTML
+ * for a 200 response with an HTML content type, an empty string for any other
+ * response, or {@code null} if the page could not be fetched at all.
+ */
+public class AsyncFetcher {
+
+	/**
+	 * A fetch waiting for one of the in-flight slots
+	 */
+	private static class Waiting {
+
+		/**
+		 * The extra headers to send with the request
+		 */
+		private final Map<String, String> headers;
+
+		/**
+		 * The future to complete with the last response
+		 */
+		private final CompletableFuture<HttpResponse<String>> result;
+
+		/**
+		 * The number of times to follow redirects
+		 */
+		private final int redirects;
+
+		/**
+		 * The link to fetch
+		 */
+		private final URI uri;
+
+		/**
+		 * Initializes a waiting fetch.
+		 *
+		 * @param uri       the link to fetch
+		 * @param redirects the number of times to follow redirects
+		 * @param headers   the extra headers to send with the request
+		 * @param result    the future to complete with the last response
+		 */
+		public Waiting(URI uri, int redirects, Map<String, String> headers,
+				CompletableFuture<HttpResponse<String>> result) {
+			this.uri = uri;
+			this.redirects = redirects;
+			this.headers = headers;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * The default number of threads that run completed fetches
+	 */
+	public static final int DEFAULT_CALLBACK_THREADS = 2;
+
+	/**
+	 * The default most fetches in flight at once
+	 */
+	public static final int DEFAULT_IN_FLIGHT = 256;
+
+	/**
+	 * The longest to wait for a connection to open
+	 */
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+	/**
+	 * The longest to wait for a whole response
+	 */
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+	/**
+	 * Reads the body as text only if it is HTML with a 200 status code, and skips
+	 * it otherwise. The body is decompressed, decoded and laid out like
+	 * {@link HtmlFetcher} does.
+	 */
+	private static final BodyHandler<String> HTML = info -> isHtml(info)
+			? BodySubscribers.mapping(BodySubscribers.ofByteArray(), body -> toHtml(decode(body, info)))
+			: BodySubscribers.replacing("");
+
+	/**
+	 * The client that owns the connections and the selector thread
+	 */
+	private final HttpClient client;
+
+	/**
+	 * The threads that run completed fetches
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The number of fetches in flight right now
+	 */
+	private int inFlight;
+
+	/**
+	 * The most fetches in flight at once
+	 */
+	private final int maxInFlight;
+
+	/**
+	 * Fetches waiting for an in-flight slot, in the order they were asked for
+	 */
+	private final ArrayDeque<Waiting> waiting;
+
+	/**
+	 * Initializes a fetcher with the default limits
+	 */
+	public AsyncFetcher() {
+		this(DEFAULT_IN_FLIGHT, DEFAULT_CALLBACK_THREADS);
+	}
+
+	/**
+	 * Initializes a fetcher
+	 *
+	 * @param maxInFlight the most fetches in flight at once
+	 * @param threads     the number of threads that run completed fetches
+	 */
+	public AsyncFetcher(int maxInFlight, int threads) {
+		this.maxInFlight = Math.max(maxInFlight, 1);
+		this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), task -> {
+			Thread thread = new Thread(task, "AsyncFetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// redirects are followed by hand so the limit matches HtmlFetcher
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(CONNECT_TIMEOUT)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.executor(executor)
+				.build();
+		this.waiting = new ArrayDeque<Waiting>();
+		this.inFlight = 0;
+	}
+
+	/**
+	 * Fetches the link in the background. The future completes on one of the
+	 * callback threads, so anything expensive should be handed off to another
+	 * thread from there.
+	 *
+	 * @param url       the link to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return the html, an empty string if the page is not html, or {@code null}
+	 *         if unable to fetch the page
+	 */
+	public CompletableFuture<String> fetch(URL url, int redirects) {
+		return fetch(url, redirects, Map.of()).thenApply(response -> response == null ? null : response.body());
+	}
+
+	/**
+	 * Fetches the link in the background like {@link #fetch(URL, int)}, sending
+	 * the extra headers with the first request, and completes with the last
+	 * response instead of only its body. Used for conditional requests, where a
+	 * 304 status code means the page has not changed. The headers are not sent to
+	 * the page a redirect points to.
+	 *
+	 * @param url       the link to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param headers   the extra header names and values to send, such as
+	 *                  If-None-Match
+	 * @return the last response after any redirects, with the html as its body or
+	 *         an empty body if it is not html, or {@code null} if unable to fetch
+	 *         the page
+	 */
+	public CompletableFuture<HttpResponse<String>> fetch(URL url, int redirects, Map<String, String> headers) {
+		CompletableFuture<HttpResponse<String>> result = new CompletableFuture<HttpResponse<String>>();
+		try {
+			enqueue(new Waiting(url.toURI(), redirects, headers, result));
+		} catch (URISyntaxException e) {
+			result.complete(null);
+		}
+		return result;
+	}
+
+	/**
+	 * Sends the fetch now if there is a free slot, or queues it otherwise
+	 *
+	 * @param next the fetch to send
+	 */
+	private void enqueue(Waiting next) {
+		synchronized (waiting) {
+			if (inFlight >= maxInFlight) {
+				waiting.addLast(next);
+				return;
+			}
+			inFlight++;
+		}
+		send(next);
+	}
+
+	/**
+	 * Frees the slot of a finished fetch, and sends the next waiting fetch in it
+	 */
+	private void finished() {
+		Waiting next;
+		synchronized (waiting) {
+			next = waiting.pollFirst();
+			if (next == null) {
+				inFlight--;
+				return;
+			}
+		}
+		send(next);
+	}
+
+	/**
+	 * @return the number of fetches in flight right now
+	 */
+	public int numInFlight() {
+		synchronized (waiting) {
+			return inFlight;
+		}
+	}
+
+	/**
+	 * @return the number of fetches waiting for a free slot
+	 */
+	public int numWaiting() {
+		synchronized (waiting) {
+			return waiting.size();
+		}
+	}
+
+	/**
+	 * Sends a fetch that already holds an in-flight slot. A redirect keeps the
+	 * slot and is sent again right away.
+	 *
+	 * @param fetch the fetch to send
+	 */
+	private void send(Waiting fetch) {
+		HttpRequest request;
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(fetch.uri)
+					.timeout(REQUEST_TIMEOUT)
+					.header("Accept-Encoding", HttpsFetcher.ACCEPT_ENCODING);
+			fetch.headers.forEach(builder::header);
+			request = builder.GET().build();
+		} catch (IllegalArgumentException e) {
+			fetch.result.complete(null);
+			finished();
+			return;
+		}
+
+		client.sendAsync(request, HTML).whenComplete((response, error) -> {
+			if (error != null) {
+				fetch.result.complete(null);
+				finished();
+				return;
+			}
+
+			String location = redirect(response);
+			if ((location != null) && (fetch.redirects > 0)) {
+				try {
+					send(new Waiting(fetch.uri.resolve(location), fetch.redirects - 1, Map.of(), fetch.result));
+					return;
+				} catch (IllegalArgumentException e) {
+					fetch.result.complete(null);
+					finished();
+					return;
+				}
+			}
+
+			fetch.result.complete(response);
+			finished();
+		});
+	}
+
+	/**
+	 * Decompresses the body according to its Content-Encoding and decodes it
+	 * with the charset of its content type
+	 *
+	 * @param body the body as sent
+	 * @param info the status code and headers of the response
+	 * @return the body as text
+	 * @throws UncheckedIOException if the body cannot be decompressed, which
+	 *   fails the fetch
+	 */
+	private static String decode(byte[] body, ResponseInfo info) {
+		String encoding = info.headers().firstValue("Content-Encoding").orElse(null);
+		try (InputStream decoded = HttpsFetcher.decode(new ByteArrayInputStream(body), encoding)) {
+			Charset charset = HtmlFetcher.getCharset(info.headers().firstValue("Content-Type").orElse(null));
+			return new String(decoded.readAllBytes(), charset);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the status code is 200 and the first content type
+	 * is HTML, the same test {@link HtmlFetcher#isHtml} uses
+	 *
+	 * @param info the status code and headers of the response
+	 * @return {@code true} if the body should be read
+	 */
+	private static boolean isHtml(ResponseInfo info) {
+		return (info.statusCode() == 200)
+				&& info.headers().firstValue("Content-Type").map(type -> type.contains("text/html")).orElse(false);
+	}
+
+	/**
+	 * Returns the redirect location if the response is a redirect
+	 *
+	 * @param response the response to check
+	 * @return the location to follow, or {@code null} if there is none
+	 */
+	private static String redirect(HttpResponse<String> response) {
+		int status = response.statusCode();
+		if ((status >= 300) && (status <= 399)) {
+			return response.headers().firstValue("Location").orElse(null);
+		}
+		return null;
+	}
+
+	/**
+	 * Lays out the body the same way {@link HtmlFetcher} does, starting with a
+	 * newline and ending every line with one
+	 *
+	 * @param body the body of the response, or an empty string if it was skipped
+	 * @return the html, or an empty string if there was none
+	 */
+	private static String toHtml(String body) {
+		if (body.isEmpty()) {
+			return body;
+		}
+		StringBuilder html = new StringBuilder(body.length() + 64);
+		html.append("\n");
+		body.lines().forEach(line -> {
+			html.append(line);
+			html.append("\n");
+		});
+		return html.toString();
+	}
+}
@@ -0,0 +1,98 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.usfca.cs272.InvertedIndex.SearchResult;
+
+/**
+ * Writes search results in a compact binary format for programs that do not
+ * need JSON. All numbers are big-endian, as written by {@link DataOutputStream}.
+ *
+ * <pre>
+ * int    magic number 0x57474C52 ("WGLR")
+ * int    format version, currently 1
+ * int    number of locations
+ *        for each location: string
+ * int    number of queries
+ *        for each query: string, then int number of results
+ *            for each result: int location id, int count, double score
+ * </pre>
+ *
+ * Strings are an int byte length followed by that many bytes of UTF-8. The
+ * location id is the position of the location in the location table, starting
+ * at 0.
+ */
+public class BinaryWriter {
+
+	/**
+	 * The first four bytes of every binary results file
+	 */
+	public static final int MAGIC = 0x57474C52;
+
+	/**
+	 * The version of the format written by this class
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Writes the search results of every query to file in the binary format
+	 *
+	 * @param rank the queries and their search results to write
+	 * @param path the path of the file to write to
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void writeSearchResult(Map<String, ? extends Collection<SearchResult>> rank, Path path)
+			throws IOException {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		ArrayList<String> locations = new ArrayList<String>();
+		for (var results : rank.values()) {
+			for (SearchResult result : results) {
+				if (ids.putIfAbsent(result.getLocationOfFile(), locations.size()) == null) {
+					locations.add(result.getLocationOfFile());
+				}
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(locations.size());
+			for (String location : locations) {
+				writeString(location, out);
+			}
+			out.writeInt(rank.size());
+			for (var entry : rank.entrySet()) {
+				writeString(entry.getKey(), out);
+				out.writeInt(entry.getValue().size());
+				for (SearchResult result : entry.getValue()) {
+					out.writeInt(ids.get(result.getLocationOfFile()));
+					out.writeInt(result.getNumMatches());
+					out.writeDouble(result.getScore());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the byte length of the text followed by the text encoded as UTF-8
+	 *
+	 * @param text the text to write
+	 * @param out  the stream to write to
+	 * @throws IOException if an IO error occurs
+	 */
+	private static void writeString(String text, DataOutputStream out) throws IOException {
+		byte[] bytes = text.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
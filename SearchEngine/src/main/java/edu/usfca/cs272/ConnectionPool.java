@@ -0,0 +1,322 @@
+package edu.usfca.cs272;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps HTTP/1.1 connections open between requests so that fetching many pages
+ * from the same host only pays for the TCP connection and TLS handshake once.
+ * Each host has at most a fixed number of connections open at a time, and
+ * connections left idle for too long are closed.
+ */
+public class ConnectionPool {
+
+	/**
+	 * An open connection to a host
+	 */
+	public static class Connection {
+
+		/**
+		 * The buffered stream to read responses from
+		 */
+		private final InputStream input;
+
+		/**
+		 * The pool key of the host this connection is for
+		 */
+		private final String key;
+
+		/**
+		 * When this connection was last released to the pool
+		 */
+		private long lastUsed;
+
+		/**
+		 * The buffered stream to write requests to
+		 */
+		private final OutputStream output;
+
+		/**
+		 * Whether this connection has been used for a request before
+		 */
+		private boolean reused;
+
+		/**
+		 * The socket of this connection
+		 */
+		private final Socket socket;
+
+		/**
+		 * Initializes this connection.
+		 *
+		 * @param key    the pool key of the host this connection is for
+		 * @param socket the open socket
+		 * @throws IOException if unable to get the socket streams
+		 */
+		private Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+			this.reused = false;
+		}
+
+		/**
+		 * Closes the socket, ignoring any errors
+		 */
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing to do, the connection is being thrown away
+			}
+		}
+
+		/**
+		 * @return the stream to read responses from
+		 */
+		public InputStream getInput() {
+			return input;
+		}
+
+		/**
+		 * @return the stream to write requests to
+		 */
+		public OutputStream getOutput() {
+			return output;
+		}
+
+		/**
+		 * @return true if this connection was used for an earlier request, in which
+		 *         case the server may have closed it since
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+	}
+
+	/**
+	 * The default number of connections to keep open to each host
+	 */
+	public static final int DEFAULT_PER_HOST = 4;
+
+	/**
+	 * The default time in milliseconds a connection may sit idle before it is
+	 * closed
+	 */
+	public static final long DEFAULT_IDLE_MILLIS = 15_000;
+
+	/**
+	 * The number of connections to each host that are in use
+	 */
+	private final HashMap<String, Integer> active;
+
+	/**
+	 * The idle connections to each host, most recently used last
+	 */
+	private final HashMap<String, ArrayDeque<Connection>> idle;
+
+	/**
+	 * The time in milliseconds a connection may sit idle before it is closed
+	 */
+	private final long idleMillis;
+
+	/**
+	 * The most connections open to a single host at once
+	 */
+	private final int maxPerHost;
+
+	/**
+	 * Initializes a pool with the default limits
+	 */
+	public ConnectionPool() {
+		this(DEFAULT_PER_HOST, DEFAULT_IDLE_MILLIS);
+	}
+
+	/**
+	 * Initializes a pool
+	 *
+	 * @param maxPerHost the most connections open to a single host at once
+	 * @param idleMillis the time in milliseconds a connection may sit idle before
+	 *                   it is closed
+	 */
+	public ConnectionPool(int maxPerHost, long idleMillis) {
+		this.maxPerHost = maxPerHost;
+		this.idleMillis = idleMillis;
+		this.active = new HashMap<String, Integer>();
+		this.idle = new HashMap<String, ArrayDeque<Connection>>();
+	}
+
+	/**
+	 * Counts one less connection to the host as in use. Must be called while
+	 * synchronized on the pool.
+	 *
+	 * @param key the pool key of the host
+	 */
+	private void finished(String key) {
+		active.computeIfPresent(key, (host, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * Returns the pool key for the host of the url
+	 *
+	 * @param url the url to connect to
+	 * @return the protocol, host and port of the url
+	 */
+	private static String key(URL url) {
+		String protocol = url.getProtocol() == null ? "http" : url.getProtocol().toLowerCase();
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return protocol + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Returns an open connection to the host of the url, reusing an idle one if
+	 * possible. Waits if the host already has the most connections allowed. Every
+	 * connection must be given back with {@link #release(Connection, boolean)}.
+	 *
+	 * @param url the url to connect to
+	 * @return an open connection
+	 * @throws IOException if unable to connect
+	 */
+	public Connection acquire(URL url) throws IOException {
+		return acquire(url, true);
+	}
+
+	/**
+	 * Returns an open connection to the host of the url like
+	 * {@link #acquire(URL)}, but always opens a new connection if asked not to
+	 * reuse one.
+	 *
+	 * @param url the url to connect to
+	 * @param reuse whether an idle connection may be reused
+	 * @return an open connection
+	 * @throws IOException if unable to connect
+	 */
+	public Connection acquire(URL url, boolean reuse) throws IOException {
+		String key = key(url);
+		synchronized (this) {
+			try {
+				while (true) {
+					Connection connection = reuse ? takeIdle(key) : null;
+					if (connection != null) {
+						active.merge(key, 1, Integer::sum);
+						return connection;
+					}
+					if (active.getOrDefault(key, 0) < maxPerHost) {
+						active.merge(key, 1, Integer::sum);
+						break;
+					}
+					this.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a connection to " + key, e);
+			}
+		}
+		try {
+			return new Connection(key, HttpsFetcher.openConnection(url));
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				finished(key);
+				this.notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes every idle connection
+	 */
+	public synchronized void clear() {
+		for (var connections : idle.values()) {
+			for (Connection connection : connections) {
+				connection.close();
+			}
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Closes connections that have been idle for too long
+	 */
+	public synchronized void evictIdle() {
+		long oldest = System.currentTimeMillis() - idleMillis;
+		Iterator<ArrayDeque<Connection>> hosts = idle.values().iterator();
+		while (hosts.hasNext()) {
+			ArrayDeque<Connection> connections = hosts.next();
+			while (!connections.isEmpty() && (connections.peekFirst().lastUsed < oldest)) {
+				connections.pollFirst().close();
+			}
+			if (connections.isEmpty()) {
+				hosts.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of idle connections across every host
+	 */
+	public synchronized int numIdle() {
+		int count = 0;
+		for (var connections : idle.values()) {
+			count += connections.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Gives a connection back to the pool
+	 *
+	 * @param connection the connection from {@link #acquire(URL)}
+	 * @param reusable   true if the response was read completely and the server
+	 *                   did not ask to close the connection
+	 */
+	public synchronized void release(Connection connection, boolean reusable) {
+		finished(connection.key);
+		if (reusable && !connection.socket.isClosed()) {
+			connection.reused = true;
+			connection.lastUsed = System.currentTimeMillis();
+			idle.computeIfAbsent(connection.key, host -> new ArrayDeque<Connection>()).addLast(connection);
+		} else {
+			connection.close();
+		}
+		evictIdle();
+		this.notifyAll();
+	}
+
+	/**
+	 * Removes the most recently used idle connection to the host that has not
+	 * been idle for too long
+	 *
+	 * @param key the pool key of the host
+	 * @return the connection or null if there is none
+	 */
+	private Connection takeIdle(String key) {
+		ArrayDeque<Connection> connections = idle.get(key);
+		if (connections == null) {
+			return null;
+		}
+		long oldest = System.currentTimeMillis() - idleMillis;
+		Connection found = null;
+		while ((found == null) && !connections.isEmpty()) {
+			Connection connection = connections.pollLast();
+			if ((connection.lastUsed >= oldest) && !connection.socket.isClosed()) {
+				found = connection;
+			} else {
+				connection.close();
+			}
+		}
+		if (connections.isEmpty()) {
+			idle.remove(key);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,305 @@
+package edu.usfca.cs272;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The links a crawl still has to fetch, kept in one queue per host. A host
+ * only gets a limited number of fetches at once and a delay between the start
+ * of each, so a crawl does not hammer a single server. Links are handed to the
+ * dispatcher as soon as their host allows it, shallowest first, so the workers
+ * stay busy with other hosts instead of waiting behind a slow one. A host that
+ * is waiting out its delay is checked again by a timer instead of a worker.
+ */
+public class CrawlFrontier {
+
+	/**
+	 * A link waiting to be fetched
+	 */
+	private static class Entry implements Comparable<Entry> {
+
+		/**
+		 * The number of links followed from the seed to find this one
+		 */
+		private final int depth;
+
+		/**
+		 * The link to fetch
+		 */
+		private final URL link;
+
+		/**
+		 * The order the link was added in, used to break ties
+		 */
+		private final long order;
+
+		/**
+		 * Initializes this entry.
+		 *
+		 * @param link  the link to fetch
+		 * @param depth the number of links followed from the seed
+		 * @param order the order the link was added in
+		 */
+		public Entry(URL link, int depth, long order) {
+			this.link = link;
+			this.depth = depth;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int compare = Integer.compare(depth, other.depth);
+			return compare != 0 ? compare : Long.compare(order, other.order);
+		}
+	}
+
+	/**
+	 * The links waiting for one host and how busy that host is
+	 */
+	private static class Host {
+
+		/**
+		 * The number of fetches from this host in progress
+		 */
+		private int active;
+
+		/**
+		 * The earliest time the next fetch from this host may start
+		 */
+		private long nextStart;
+
+		/**
+		 * The links waiting for this host, shallowest first
+		 */
+		private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+		/**
+		 * Whether the timer will check this host again, either to start its next
+		 * fetch or to forget it once it is idle
+		 */
+		private boolean scheduled;
+	}
+
+	/**
+	 * The default number of fetches from one host at once, the same as the
+	 * connections kept per host so fetches never wait for a connection
+	 */
+	public static final int DEFAULT_PER_HOST = ConnectionPool.DEFAULT_PER_HOST;
+
+	/**
+	 * Checks hosts again once their delay is over, shared by every frontier
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "CrawlFrontier");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The least time between the start of two fetches from the same host
+	 */
+	private final long delayMillis;
+
+	/**
+	 * Starts fetching a link found at a depth
+	 */
+	private final ObjIntConsumer<URL> dispatcher;
+
+	/**
+	 * The hosts with links waiting, fetches in progress, or a delay not over yet
+	 */
+	private final HashMap<String, Host> hosts;
+
+	/**
+	 * The most fetches from one host at once
+	 */
+	private final int maxPerHost;
+
+	/**
+	 * The number of links added so far
+	 */
+	private long order;
+
+	/**
+	 * The number of links waiting for their host
+	 */
+	private int queued;
+
+	/**
+	 * Initializes a frontier with the default number of fetches per host and no
+	 * delay
+	 *
+	 * @param dispatcher starts fetching a link found at a depth
+	 */
+	public CrawlFrontier(ObjIntConsumer<URL> dispatcher) {
+		this(dispatcher, DEFAULT_PER_HOST, 0);
+	}
+
+	/**
+	 * Initializes a frontier
+	 *
+	 * @param dispatcher  starts fetching a link found at a depth
+	 * @param maxPerHost  the most fetches from one host at once
+	 * @param delayMillis the least time between the start of two fetches from
+	 *                    the same host
+	 */
+	public CrawlFrontier(ObjIntConsumer<URL> dispatcher, int maxPerHost, long delayMillis) {
+		this.dispatcher = dispatcher;
+		this.maxPerHost = Math.max(maxPerHost, 1);
+		this.delayMillis = Math.max(delayMillis, 0);
+		this.hosts = new HashMap<String, Host>();
+		this.order = 0;
+		this.queued = 0;
+	}
+
+	/**
+	 * Adds a link to fetch. It is dispatched right away if its host allows it.
+	 *
+	 * @param link  the link to fetch
+	 * @param depth the number of links followed from the seed to find it
+	 */
+	public void add(URL link, int depth) {
+		ArrayList<Entry> ready = new ArrayList<Entry>();
+		synchronized (this) {
+			Host host = hosts.computeIfAbsent(key(link), k -> new Host());
+			host.queue.add(new Entry(link, depth, order++));
+			queued++;
+			take(host, ready);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Hands the links to the dispatcher. Called without holding the lock so the
+	 * dispatcher is free to add more links.
+	 *
+	 * @param ready the links to start fetching
+	 */
+	private void dispatch(ArrayList<Entry> ready) {
+		for (Entry entry : ready) {
+			dispatcher.accept(entry.link, entry.depth);
+		}
+	}
+
+	/**
+	 * Frees the slot of a fetch that is done, and dispatches the next link from
+	 * its host if there is one. Must be called once for every dispatched link.
+	 *
+	 * @param link the link that was fetched
+	 */
+	public void finished(URL link) {
+		ArrayList<Entry> ready = new ArrayList<Entry>();
+		synchronized (this) {
+			String key = key(link);
+			Host host = hosts.get(key);
+			if (host == null) {
+				return;
+			}
+			host.active--;
+			take(host, ready);
+			forget(key, host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Removes the host if it has nothing waiting or in progress. A host whose
+	 * delay is not over yet is kept so a new link still waits for it, and the
+	 * timer checks it again once the delay is over. Must be called while holding
+	 * the lock.
+	 *
+	 * @param key  the host name
+	 * @param host the host to check
+	 */
+	private void forget(String key, Host host) {
+		if ((host.active > 0) || !host.queue.isEmpty() || host.scheduled) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now >= host.nextStart) {
+			hosts.remove(key);
+		} else {
+			host.scheduled = true;
+			TIMER.schedule(() -> wake(key), host.nextStart - now, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Returns the host a link counts against
+	 *
+	 * @param link the link to check
+	 * @return the host name in lower case
+	 */
+	private static String key(URL link) {
+		return link.getHost().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the number of hosts with links waiting, fetches in progress, or a
+	 *         delay not over yet
+	 */
+	public synchronized int numHosts() {
+		return hosts.size();
+	}
+
+	/**
+	 * @return the number of links waiting for their host
+	 */
+	public synchronized int numQueued() {
+		return queued;
+	}
+
+	/**
+	 * Called by the timer once a host may start another fetch, or may be removed
+	 * if it is idle
+	 *
+	 * @param key the host to check
+	 */
+	private void wake(String key) {
+		ArrayList<Entry> ready = new ArrayList<Entry>();
+		synchronized (this) {
+			Host host = hosts.get(key);
+			if (host == null) {
+				return;
+			}
+			host.scheduled = false;
+			take(host, ready);
+			forget(key, host);
+		}
+		dispatch(ready);
+	}
+
+	/**
+	 * Takes as many links from the host as it allows right now. If the host is
+	 * only held back by its delay, asks the timer to check it again later. Must
+	 * be called while holding the lock.
+	 *
+	 * @param host  the host to take links from
+	 * @param ready the list to add the links to
+	 */
+	private void take(Host host, ArrayList<Entry> ready) {
+		while ((host.active < maxPerHost) && !host.queue.isEmpty()) {
+			long now = System.currentTimeMillis();
+			if (now < host.nextStart) {
+				if (!host.scheduled) {
+					host.scheduled = true;
+					String key = key(host.queue.peek().link);
+					TIMER.schedule(() -> wake(key), host.nextStart - now, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+			Entry entry = host.queue.poll();
+			queued--;
+			host.active++;
+			host.nextStart = now + delayMillis;
+			ready.add(entry);
+		}
+	}
+}
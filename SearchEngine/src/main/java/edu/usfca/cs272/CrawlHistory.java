@@ -0,0 +1,179 @@
+package edu.usfca.cs272;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what every crawled page looked like when it was last indexed, so a
+ * later crawl of the same page can ask the server whether it changed and leave
+ * the index alone if it did not. One history is shared by every crawl that adds
+ * to the same index.
+ */
+public class CrawlHistory {
+
+	/**
+	 * What a page looked like when it was last indexed
+	 */
+	public static class Version {
+
+		/**
+		 * The ETag header of the page, or null if there was none
+		 */
+		private final String etag;
+
+		/**
+		 * The hash of the stems of the page
+		 */
+		private final long hash;
+
+		/**
+		 * The Last-Modified header of the page, or null if there was none
+		 */
+		private final String lastModified;
+
+		/**
+		 * The links found on the page, so they can still be crawled when the page is
+		 * not sent again
+		 */
+		private final List<String> links;
+
+		/**
+		 * The distinct words the page was indexed under, so the page can be
+		 * replaced or removed without looking through the whole index
+		 */
+		private final List<String> words;
+
+		/**
+		 * Initializes a version.
+		 *
+		 * @param etag         the ETag header of the page, or null
+		 * @param lastModified the Last-Modified header of the page, or null
+		 * @param hash         the hash of the stems of the page
+		 * @param links        the links found on the page
+		 * @param words        the distinct words the page was indexed under
+		 */
+		public Version(String etag, String lastModified, long hash, Collection<String> links,
+				Collection<String> words) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.links = List.copyOf(links);
+			this.words = List.copyOf(words);
+		}
+
+		/**
+		 * Returns the request headers that ask the server to only send the page if it
+		 * changed since this version
+		 *
+		 * @return the If-None-Match and If-Modified-Since headers, if there is
+		 *         anything to send in them
+		 */
+		public Map<String, String> conditions() {
+			Map<String, String> conditions = new LinkedHashMap<String, String>();
+			if (etag != null) {
+				conditions.put("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				conditions.put("If-Modified-Since", lastModified);
+			}
+			return conditions;
+		}
+
+		/**
+		 * @return the hash of the stems of the page
+		 */
+		public long getHash() {
+			return hash;
+		}
+
+		/**
+		 * @return the links found on the page
+		 */
+		public List<String> getLinks() {
+			return links;
+		}
+
+		/**
+		 * @return the distinct words the page was indexed under
+		 */
+		public List<String> getWords() {
+			return words;
+		}
+	}
+
+	/**
+	 * The hash of a page without any stems
+	 */
+	public static final long EMPTY_HASH = 0xcbf29ce484222325L;
+
+	/**
+	 * The multiplier of the 64-bit FNV-1a hash
+	 */
+	private static final long PRIME = 0x100000001b3L;
+
+	/**
+	 * The last version of every page by location
+	 */
+	private final ConcurrentHashMap<String, Version> versions;
+
+	/**
+	 * Initializes an empty history
+	 */
+	public CrawlHistory() {
+		versions = new ConcurrentHashMap<String, Version>();
+	}
+
+	/**
+	 * Returns the last version of a page
+	 *
+	 * @param location the location the page is indexed under
+	 * @return the last version, or null if the page was never indexed
+	 */
+	public Version get(String location) {
+		return versions.get(location);
+	}
+
+	/**
+	 * Adds the next stem of a page to its hash
+	 *
+	 * @param hash the hash of the stems so far, starting with {@link #EMPTY_HASH}
+	 * @param stem the next stem
+	 * @return the hash including the stem
+	 */
+	public static long hash(long hash, String stem) {
+		for (int i = 0; i < stem.length(); i++) {
+			hash = (hash ^ stem.charAt(i)) * PRIME;
+		}
+		// keeps "ab c" apart from "a bc"
+		return (hash ^ ' ') * PRIME;
+	}
+
+	/**
+	 * Records the version of a page that was just indexed
+	 *
+	 * @param location the location the page is indexed under
+	 * @param version  the version that was indexed
+	 */
+	public void put(String location, Version version) {
+		versions.put(location, version);
+	}
+
+	/**
+	 * Forgets a page that is no longer indexed
+	 *
+	 * @param location the location the page was indexed under
+	 */
+	public void remove(String location) {
+		versions.remove(location);
+	}
+
+	/**
+	 * @return the number of pages in the history
+	 */
+	public int size() {
+		return versions.size();
+	}
+}
@@ -0,0 +1,261 @@
+package edu.usfca.cs272;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.TreeMap;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Keeps track of seed crawls started from the web interface. Each crawl runs in
+ * the background on the shared work queue and is given an id that can be used
+ * to check on its progress. Only a few crawls may run at once, and once a crawl
+ * is done only its final progress is kept, for the last few crawls.
+ */
+public class CrawlJobs {
+
+	/**
+	 * A single background crawl
+	 */
+	private static class Job {
+
+		/**
+		 * The crawler doing the work, or null once it is done
+		 */
+		private WebCrawler crawler;
+
+		/**
+		 * The final progress as a JSON object, or null until the crawl is done
+		 */
+		private String done;
+
+		/**
+		 * The id of this crawl
+		 */
+		private final int id;
+
+		/**
+		 * The link the crawl started from
+		 */
+		private final URL seed;
+
+		/**
+		 * When the crawl was submitted
+		 */
+		private final Instant started;
+
+		/**
+		 * Initializes this job.
+		 *
+		 * @param id      the id of this crawl
+		 * @param seed    the link the crawl started from
+		 * @param crawler the crawler doing the work
+		 */
+		public Job(int id, URL seed, WebCrawler crawler) {
+			this.id = id;
+			this.seed = seed;
+			this.crawler = crawler;
+			this.started = Instant.now();
+		}
+
+		/**
+		 * Keeps only the final progress once the crawl is done, so the crawler and
+		 * everything it visited can be freed
+		 *
+		 * @return true if the crawl is done
+		 */
+		public boolean settle() {
+			if ((crawler != null) && crawler.isFinished()) {
+				done = toJson();
+				crawler = null;
+			}
+			return crawler == null;
+		}
+
+		/**
+		 * @return the progress of this crawl as a JSON object
+		 */
+		public String toJson() {
+			if (done != null) {
+				return done;
+			}
+			long seconds = Duration.between(started, Instant.now()).toSeconds();
+			return String.format(
+					"{\"id\": %d, \"seed\": \"%s\", \"state\": \"%s\", \"fetched\": %d, \"unchanged\": %d, \"queued\": %d, \"failed\": %d, \"discovered\": %d, \"seconds\": %d}",
+					id, StringEscapeUtils.escapeJson(seed.toString()), crawler.isFinished() ? "finished" : "running",
+					crawler.numFetched(), crawler.numUnchanged(), crawler.numQueued(), crawler.numFailed(),
+					crawler.numDiscovered(), seconds);
+		}
+	}
+
+	/**
+	 * The default number of crawls that may run at once
+	 */
+	public static final int DEFAULT_MAX_RUNNING = 4;
+
+	/**
+	 * The number of finished crawls whose progress is kept
+	 */
+	private static final int KEPT_FINISHED = 100;
+
+	/**
+	 * The fetcher crawls use, or null to fetch on the work queue
+	 */
+	private final AsyncFetcher fetcher;
+
+	/**
+	 * The least time between the start of two fetches from one host
+	 */
+	private final long delayMillis;
+
+	/**
+	 * The versions of pages already indexed, shared by every crawl
+	 */
+	private final CrawlHistory history;
+
+	/**
+	 * The index crawled pages are added to
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The running crawls and the last few finished ones by id
+	 */
+	private final TreeMap<Integer, Job> jobs;
+
+	/**
+	 * The maximum number of pages each crawl may visit
+	 */
+	private final int maxCrawl;
+
+	/**
+	 * The most fetches from one host at once
+	 */
+	private final int maxPerHost;
+
+	/**
+	 * The most crawls that may run at once
+	 */
+	private final int maxRunning;
+
+	/**
+	 * The id to give the next crawl
+	 */
+	private int nextId;
+
+	/**
+	 * The work queue the crawls run on
+	 */
+	private final WorkQueue workers;
+
+	/**
+	 * Initializes the crawl jobs. Pages in the history are only indexed again if
+	 * they changed, so adding the same seed again is cheap.
+	 *
+	 * @param workers     the work queue the crawls run on
+	 * @param index       the index crawled pages are added to
+	 * @param maxCrawl    the maximum number of pages each crawl may visit
+	 * @param fetcher     the fetcher crawls use, or null to fetch on the work queue
+	 * @param maxPerHost  the most fetches from one host at once
+	 * @param delayMillis the least time between the start of two fetches from
+	 *                    one host
+	 * @param history     the versions of pages already indexed
+	 * @param maxRunning  the most crawls that may run at once
+	 */
+	public CrawlJobs(WorkQueue workers, ThreadSafeInvertedIndex index, int maxCrawl, AsyncFetcher fetcher,
+			int maxPerHost, long delayMillis, CrawlHistory history, int maxRunning) {
+		this.workers = workers;
+		this.history = history;
+		this.fetcher = fetcher;
+		this.maxPerHost = maxPerHost;
+		this.delayMillis = delayMillis;
+		this.index = index;
+		this.maxCrawl = maxCrawl;
+		this.maxRunning = Math.max(maxRunning, 1);
+		this.jobs = new TreeMap<Integer, Job>();
+		this.nextId = 1;
+	}
+
+	/**
+	 * @return the number of crawls that have not finished yet
+	 */
+	public synchronized int numRunning() {
+		sweep();
+		int running = 0;
+		for (Job job : jobs.values()) {
+			if (job.crawler != null) {
+				running++;
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * Returns the progress of a crawl as a JSON object
+	 *
+	 * @param id the id of the crawl
+	 * @return the progress of the crawl or null if there is no crawl with that id
+	 */
+	public synchronized String status(int id) {
+		sweep();
+		Job job = jobs.get(id);
+		return job == null ? null : job.toJson();
+	}
+
+	/**
+	 * Returns the progress of every crawl as a JSON array
+	 *
+	 * @return the progress of every crawl
+	 */
+	public synchronized String status() {
+		sweep();
+		StringBuilder json = new StringBuilder("[");
+		for (Job job : jobs.values()) {
+			json.append(json.length() > 1 ? ",\n  " : "\n  ");
+			json.append(job.toJson());
+		}
+		json.append("\n]");
+		return json.toString();
+	}
+
+	/**
+	 * Starts crawling from the seed in the background, unless too many crawls are
+	 * running already
+	 *
+	 * @param seed the link to start crawling from
+	 * @return the id of the new crawl, or -1 if too many crawls are running
+	 */
+	public synchronized int submit(URL seed) {
+		if (numRunning() >= maxRunning) {
+			return -1;
+		}
+		int id = nextId++;
+		WebCrawler crawler = new WebCrawler(workers, index, maxCrawl, fetcher, maxPerHost, delayMillis, history,
+				false);
+		jobs.put(id, new Job(id, seed, crawler));
+		crawler.start(seed);
+		return id;
+	}
+
+	/**
+	 * Keeps only the final progress of the crawls that are done, and forgets the
+	 * oldest finished crawls beyond the last few. Must be called while holding
+	 * the lock.
+	 */
+	private void sweep() {
+		int finished = 0;
+		for (Job job : jobs.values()) {
+			if (job.settle()) {
+				finished++;
+			}
+		}
+		var oldest = jobs.values().iterator();
+		while ((finished > KEPT_FINISHED) && oldest.hasNext()) {
+			if (oldest.next().crawler == null) {
+				oldest.remove();
+				finished--;
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package edu.usfca.cs272;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only record of a crawl that can be replayed to resume it. Every
+ * link is written when it is queued, and every page again once it is done,
+ * together with its stems so its part of the index can be rebuilt without
+ * fetching it again. Each record is one line:
+ *
+ * <pre>
+ * Q	depth	link
+ * P	link	stem stem stem ...
+ * F	link
+ * </pre>
+ *
+ * <p>
+ * Workers only append to a large buffer while holding the lock. A background
+ * thread writes the buffer out and forces it to disk every few seconds, and
+ * the slow part of that happens without the lock. A crash can only lose the
+ * records since the last checkpoint, and a half written last line is dropped
+ * when the journal is replayed.
+ */
+public class CrawlJournal implements AutoCloseable {
+
+	/**
+	 * Receives the records of a journal as it is replayed
+	 */
+	public interface Replay {
+
+		/**
+		 * Called for a page that could not be fetched as HTML
+		 *
+		 * @param link the link of the page
+		 */
+		void failed(String link);
+
+		/**
+		 * Called for a page that was added to the index
+		 *
+		 * @param link  the link of the page
+		 * @param stems the stems of the page in order
+		 */
+		void page(String link, List<String> stems);
+
+		/**
+		 * Called for a link that was queued
+		 *
+		 * @param link  the link
+		 * @param depth the number of links followed from the seed to find it
+		 */
+		void queued(URL link, int depth);
+	}
+
+	/**
+	 * The number of seconds between checkpoints
+	 */
+	public static final int CHECKPOINT_SECONDS = 5;
+
+	/**
+	 * The number of bytes to buffer between checkpoints before writing early
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Writes the checkpoints, shared by every journal
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "CrawlJournal");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The file the journal is written to
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The first error writing the journal, which stops any further writes
+	 */
+	private IOException error;
+
+	/**
+	 * The path of the journal
+	 */
+	private final Path path;
+
+	/**
+	 * The task that writes checkpoints
+	 */
+	private final ScheduledFuture<?> task;
+
+	/**
+	 * The buffer records are appended to
+	 */
+	private final BufferedWriter writer;
+
+	/**
+	 * Opens the journal for writing. An existing journal is either kept and
+	 * appended to, or replaced.
+	 *
+	 * @param path   the path of the journal
+	 * @param append whether to keep an existing journal
+	 * @throws IOException if unable to open the journal
+	 */
+	public CrawlJournal(Path path, boolean append) throws IOException {
+		this.path = path;
+		if (append) {
+			trim(path);
+		}
+		FileOutputStream out = new FileOutputStream(path.toFile(), append);
+		this.channel = out.getChannel();
+		this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+		this.task = TIMER.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Appends one record, and remembers the error if it could not be written
+	 *
+	 * @param record the record without the line separator
+	 */
+	private synchronized void append(String record) {
+		if (error != null) {
+			return;
+		}
+		try {
+			writer.write(record);
+			writer.write('\n');
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Writes everything appended so far to disk. Workers are only held up while
+	 * the buffer is handed to the operating system, not while it is forced to
+	 * the disk.
+	 */
+	public void checkpoint() {
+		synchronized (this) {
+			if (error != null) {
+				return;
+			}
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				error = e;
+				return;
+			}
+		}
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			synchronized (this) {
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Writes a last checkpoint and closes the journal
+	 *
+	 * @throws IOException if any part of the journal could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		task.cancel(false);
+		checkpoint();
+		synchronized (this) {
+			writer.close();
+			if (error != null) {
+				throw new IOException("Unable to write the crawl journal at: " + path, error);
+			}
+		}
+	}
+
+	/**
+	 * Records a page that could not be fetched as HTML
+	 *
+	 * @param link the link of the page
+	 */
+	public void failed(URL link) {
+		append("F\t" + link);
+	}
+
+	/**
+	 * Records a page that was added to the index
+	 *
+	 * @param link  the link of the page
+	 * @param stems the stems of the page in order
+	 */
+	public void page(URL link, List<String> stems) {
+		StringBuilder record = new StringBuilder(link.toString().length() + stems.size() * 8);
+		record.append("P\t").append(link).append('\t');
+		for (int i = 0; i < stems.size(); i++) {
+			if (i > 0) {
+				record.append(' ');
+			}
+			record.append(stems.get(i));
+		}
+		append(record.toString());
+	}
+
+	/**
+	 * Records a link that was queued. Must be written before the page is done.
+	 *
+	 * @param link  the link
+	 * @param depth the number of links followed from the seed to find it
+	 */
+	public void queued(URL link, int depth) {
+		append("Q\t" + depth + "\t" + link);
+	}
+
+	/**
+	 * Reads the journal and passes every record to the replay in order. Lines
+	 * that cannot be parsed are skipped.
+	 *
+	 * @param path   the path of the journal
+	 * @param replay receives the records
+	 * @throws IOException if unable to read the journal
+	 */
+	public static void replay(Path path, Replay replay) throws IOException {
+		trim(path);
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 3);
+				try {
+					switch (fields[0]) {
+						case "Q" -> replay.queued(new URL(fields[2]), Integer.parseInt(fields[1]));
+						case "P" -> replay.page(fields[1],
+								fields[2].isEmpty() ? List.of() : Arrays.asList(fields[2].split(" ")));
+						case "F" -> replay.failed(fields[1]);
+						default -> System.err.println("Skipping unknown crawl journal record: " + fields[0]);
+					}
+				} catch (IOException | RuntimeException e) {
+					System.err.println("Skipping unreadable crawl journal record: " + fields[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cuts off a last line that was only partly written before a crash
+	 *
+	 * @param path the path of the journal
+	 * @throws IOException if unable to read or truncate the journal
+	 */
+	private static void trim(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long end = file.size();
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			while (end > 0) {
+				long start = Math.max(end - buffer.capacity(), 0);
+				buffer.clear().limit((int) (end - start));
+				while (buffer.hasRemaining() && (file.read(buffer, start + buffer.position()) >= 0)) {
+					// keep reading until this block is full
+				}
+				for (int i = buffer.position() - 1; i >= 0; i--) {
+					if (buffer.get(i) == '\n') {
+						file.truncate(start + i + 1);
+						return;
+					}
+				}
+				end = start;
+			}
+			file.truncate(0);
+		}
+	}
+}
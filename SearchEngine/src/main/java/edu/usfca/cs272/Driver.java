@@ -8,15 +8,27 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+import edu.usfca.cs272.SearchEngineServer.CrawlStatusServlet;
 import edu.usfca.cs272.SearchEngineServer.IndexBrowserServlet;
 import edu.usfca.cs272.SearchEngineServer.LocationServlet;
+import edu.usfca.cs272.SearchEngineServer.MetricsServlet;
+import edu.usfca.cs272.SearchEngineServer.SearchApiServlet;
 import edu.usfca.cs272.SearchEngineServer.SearchEngineServlet;
 import edu.usfca.cs272.SearchEngineServer.ShutdownServlet;
+import edu.usfca.cs272.SearchEngineServer.SuggestServlet;
+import jakarta.servlet.DispatcherType;
 
 /**
  * @author William Stout
@@ -39,8 +51,12 @@ public class Driver {
 		InvertedIndex invertedIndex = null;
 		WorkQueue workers = null;
 		WebCrawler webCrawler = null;
+		AsyncFetcher fetcher = null;
+		CrawlHistory history = null;
 		int numWorkers = 5;
 		int numCrawlers = 0;
+		int perHost = CrawlFrontier.DEFAULT_PER_HOST;
+		int delay = 0;
 		int PORT = 8080;
 		boolean isThreaded = parser.hasFlag("-threads");
 		QueryProcessorInterface queryProcessor = null;
@@ -55,6 +71,20 @@ public class Driver {
 			if (parser.hasValue("-server") && (parser.getInteger("-server") >= 1)) {
 				PORT = parser.getInteger("-server");
 			}
+			if (parser.hasValue("-perhost") && (parser.getInteger("-perhost") >= 1)) {
+				perHost = parser.getInteger("-perhost");
+			}
+			if (parser.hasValue("-delay") && (parser.getInteger("-delay") >= 0)) {
+				delay = parser.getInteger("-delay");
+			}
+			if (parser.hasFlag("-async")) {
+				int inFlight = parser.getInteger("-async", AsyncFetcher.DEFAULT_IN_FLIGHT);
+				fetcher = new AsyncFetcher(inFlight, AsyncFetcher.DEFAULT_CALLBACK_THREADS);
+			}
+			if (parser.hasFlag("-server")) {
+				// only worth keeping if seeds can be crawled again later
+				history = new CrawlHistory();
+			}
 			workers = new WorkQueue(numWorkers);
 			multiThread = new ThreadSafeInvertedIndex();
 			invertedIndex = multiThread;
@@ -64,14 +94,33 @@ public class Driver {
 			queryProcessor = new QueryProcessor(invertedIndex, parser.hasFlag("-partial"));
 		}
 
+		if (parser.hasFlag("-load")) {
+			Path input = parser.getPath("-load", Path.of("index.json"));
+			try {
+				invertedIndex.loadIndex(input);
+			} catch (IOException e) {
+				System.err.println("Unable to load the inverted index from the JSON file at: " + input);
+			}
+		}
+
 		if (parser.hasFlag("-html") && parser.hasValue("-html")) {
 			String htmlLink = parser.getString("-html");
 			try {
 				if (htmlLink != null) {
 					URI newURI = LinkFinder.makeUri(htmlLink);
 					newURI = LinkFinder.cleanUri(newURI);
-					webCrawler = new WebCrawler(workers, multiThread, numCrawlers);
-					webCrawler.buildIndex(newURI.toURL());
+					webCrawler = new WebCrawler(workers, multiThread, numCrawlers, fetcher, perHost, delay, history,
+							parser.hasFlag("-bloom"));
+					if (parser.hasFlag("-checkpoint") || parser.hasFlag("-resume")) {
+						Path journal = parser.getPath("-resume", parser.getPath("-checkpoint", Path.of("crawl.journal")));
+						try {
+							webCrawler.buildIndex(newURI.toURL(), journal, parser.hasFlag("-resume"));
+						} catch (IOException e) {
+							System.err.println("Unable to checkpoint the crawl to: " + journal);
+						}
+					} else {
+						webCrawler.buildIndex(newURI.toURL());
+					}
 				}
 			} catch (MalformedURLException e) {
 				System.err.println("Error converting link to URL. ");
@@ -122,10 +171,23 @@ public class Driver {
 			}
 		}
 
+		if (parser.hasFlag("-binary")) {
+			Path output = parser.getPath("-binary", Path.of("results.bin"));
+			try {
+				queryProcessor.writeBinarySearchRank(output);
+			} catch (IOException e) {
+				System.err.println("Unable to write the binary search results to: " + output);
+			}
+		}
+
 		if (parser.hasFlag("-index")) {
 			Path output = parser.getPath("-index", Path.of("index.json"));
 			try {
-				invertedIndex.writeIndex(output);
+				if ((multiThread != null) && (workers != null)) {
+					multiThread.writeIndex(output, workers);
+				} else {
+					invertedIndex.writeIndex(output);
+				}
 			} catch (IOException e) {
 				System.err.println("Cannot write inverted index to the JSON file at: " + output);
 			}
@@ -133,13 +195,35 @@ public class Driver {
 
 		if (parser.hasFlag("-server") && parser.hasValue("-server")) {
 			try {
-				Server server = new Server(PORT);
+				// a bounded queue so a spike is turned away instead of piling up
+				QueuedThreadPool pool = new AdmissionFilter.TimedThreadPool(SearchEngineServer.MAX_THREADS,
+						SearchEngineServer.MIN_THREADS, SearchEngineServer.IDLE_MILLIS,
+						new BlockingArrayQueue<Runnable>(SearchEngineServer.QUEUE_CAPACITY));
+				Server server = new Server(pool);
+				ServerConnector connector = new ServerConnector(server);
+				connector.setPort(PORT);
+				server.addConnector(connector);
 				ServletHandler handler = new ServletHandler();
-				handler.addServletWithMapping(new ServletHolder(new SearchEngineServlet(multiThread, numWorkers)), "/");
+				AdmissionFilter admission = new AdmissionFilter(Set.of("/indexbrowser", "/location"));
+				QueryCache cache = new QueryCache();
+				ServerMetrics metrics = new ServerMetrics(multiThread, workers, cache, admission);
+				// metrics first so rejected requests are timed too
+				handler.addFilterWithMapping(new FilterHolder(metrics), "/*", EnumSet.of(DispatcherType.REQUEST));
+				handler.addFilterWithMapping(new FilterHolder(admission), "/*", EnumSet.of(DispatcherType.REQUEST));
+				CrawlJobs crawls = new CrawlJobs(workers, multiThread, numCrawlers, fetcher, perHost, delay, history,
+						CrawlJobs.DEFAULT_MAX_RUNNING);
+				handler.addServletWithMapping(new ServletHolder(new SearchEngineServlet(multiThread, crawls, cache, metrics)), "/");
+				handler.addServletWithMapping(new ServletHolder(new CrawlStatusServlet(crawls)), "/crawl");
+				handler.addServletWithMapping(new ServletHolder(new SearchApiServlet(multiThread, cache, metrics)), "/api/search");
+				handler.addServletWithMapping(new ServletHolder(new SuggestServlet(new Suggester(multiThread))), "/suggest");
+				handler.addServletWithMapping(new ServletHolder(new MetricsServlet(metrics)), "/metrics");
 				handler.addServletWithMapping(new ServletHolder(new ShutdownServlet(server)), "/shutdown");
 				handler.addServletWithMapping(new ServletHolder(new LocationServlet(multiThread)), "/location");
 				handler.addServletWithMapping(new ServletHolder(new IndexBrowserServlet(multiThread)), "/indexbrowser");
-				server.setHandler(handler);
+				GzipHandler gzip = new GzipHandler();
+				gzip.setMinGzipSize(SearchEngineServer.MIN_GZIP_SIZE);
+				gzip.setHandler(handler);
+				server.setHandler(gzip);
 				server.start();
 				server.join();
 			} catch (Exception e) {
@@ -0,0 +1,79 @@
+package edu.usfca.cs272;
+
+/**
+ * Formats scores with a fixed number of decimal places, producing the same text
+ * as {@code String.format("%.8f", value)} without creating a
+ * {@link java.util.Formatter} for every score.
+ */
+public class FixedPointFormatter {
+
+	/**
+	 * The number of digits written after the decimal point
+	 */
+	public static final int PRECISION = 8;
+
+	/**
+	 * The multiplier that moves the decimal digits into the whole part
+	 */
+	private static final double SCALE = 1e8;
+
+	/**
+	 * The largest value handled without falling back to {@link String#format}.
+	 * Below this the rounding error of scaling is far smaller than the distance
+	 * checked around a tie.
+	 */
+	private static final double LIMIT = 10;
+
+	/**
+	 * How close to exactly half way the scaled value may be before the slow path
+	 * is used to break the tie the same way {@link java.util.Formatter} does
+	 */
+	private static final double TIE = 1e-6;
+
+	/**
+	 * Formats the value with eight decimal places
+	 *
+	 * @param value the value to format
+	 * @return the same text as {@code String.format("%.8f", value)}
+	 */
+	public static String format(double value) {
+		long scaled = scale(value);
+		if (scaled < 0) {
+			return String.format("%.8f", value);
+		}
+		char[] chars = new char[20 + PRECISION];
+		int at = chars.length;
+		for (int i = 0; i < PRECISION; i++) {
+			chars[--at] = (char) ('0' + (scaled % 10));
+			scaled /= 10;
+		}
+		chars[--at] = '.';
+		do {
+			chars[--at] = (char) ('0' + (scaled % 10));
+			scaled /= 10;
+		} while (scaled > 0);
+		return new String(chars, at, chars.length - at);
+	}
+
+	/**
+	 * Returns the value multiplied by 10^8 and rounded the way
+	 * {@link java.util.Formatter} rounds, or -1 if the value is negative, too large,
+	 * not a number, or too close to a tie to round safely here
+	 *
+	 * @param value the value to scale
+	 * @return the rounded scaled value, or -1 if the caller should fall back to
+	 *         {@link String#format}
+	 */
+	public static long scale(double value) {
+		if (!(value >= 0) || (value >= LIMIT) || (Double.doubleToRawLongBits(value) < 0)) {
+			return -1;
+		}
+		double scaled = value * SCALE;
+		double whole = Math.floor(scaled);
+		double fraction = scaled - whole;
+		if (Math.abs(fraction - 0.5) < TIE) {
+			return -1;
+		}
+		return (long) whole + (fraction > 0.5 ? 1 : 0);
+	}
+}
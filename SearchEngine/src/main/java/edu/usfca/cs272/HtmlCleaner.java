@@ -1,7 +1,5 @@
 package edu.usfca.cs272;
 
-import java.util.regex.Pattern;
-
 import org.apache.commons.text.StringEscapeUtils;
 
 /**
@@ -10,12 +8,10 @@ import org.apache.commons.text.StringEscapeUtils;
  * For example, the {@link #stripEntities(String)} method removes HTML entities
  * but does not check that the removed entity was valid.
  *
- * <p>Look at the "See Also" section for useful classes and methods for
- * implementing this class.
+ * <p>Each method makes a single pass over the html and takes linear time, even
+ * on pages with unclosed comments or elements.
  *
- * @see String#replaceAll(String, String)
- * @see Pattern#DOTALL
- * @see Pattern#CASE_INSENSITIVE
+ * @see HtmlScanner
  * @see StringEscapeUtils#unescapeHtml4(String)
  *
  * @author CS 272 Software Development (University of San Francisco)
@@ -27,18 +23,84 @@ public class HtmlCleaner {
 	 * Removes comments and certain block elements from the provided html. The block
 	 * elements removed include: head, style, script, noscript, iframe, and svg.
 	 *
+	 * <p>All of them are removed in one pass by {@link HtmlScanner} in markup
+	 * mode. An element that is never closed is removed up to the end of the
+	 * html.
+	 *
 	 * @param html the HTML to strip comments and block elements from
 	 * @return text clean of any comments and certain HTML block elements
 	 */
 	public static String stripBlockElements(String html) {
-		html = stripComments(html);
-		html = stripElement(html, "head");
-		html = stripElement(html, "style");
-		html = stripElement(html, "script");
-		html = stripElement(html, "noscript");
-		html = stripElement(html, "iframe");
-		html = stripElement(html, "svg");
-		return html;
+		return scan(html, true);
+	}
+
+	/**
+	 * Returns the index of the next tag that opens or closes the element, ignoring
+	 * the case of the name
+	 *
+	 * @param html  the html to search
+	 * @param open  the start of the tag, like "&lt;style" or "&lt;/style"
+	 * @param start the index to start searching from
+	 * @return the index of the tag, or -1 if there is none
+	 */
+	private static int findTag(String html, String open, int start) {
+		int index = html.indexOf('<', start);
+		while (index >= 0) {
+			if (matchesName(html, index, open)) {
+				return index;
+			}
+			index = html.indexOf('<', index + 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns {@code true} if the tag start is at the index and is followed by
+	 * the end of a word, comparing ASCII letters without case like a regular
+	 * expression would
+	 *
+	 * @param html  the html to check
+	 * @param index the index to check at
+	 * @param open  the start of the tag, like "&lt;style"
+	 * @return {@code true} if the tag starts there
+	 */
+	private static boolean matchesName(String html, int index, String open) {
+		int end = index + open.length();
+		if (end > html.length()) {
+			return false;
+		}
+		for (int i = 0; i < open.length(); i++) {
+			char c = html.charAt(index + i);
+			char d = open.charAt(i);
+			if ((c != d) && ((c > 0x7F) || (d > 0x7F) || (Character.toLowerCase(c) != Character.toLowerCase(d)))) {
+				return false;
+			}
+		}
+		return (end == html.length()) || !HtmlScanner.isWordChar(html.charAt(end));
+	}
+
+	/**
+	 * Passes the html through a scanner and collects the text it passes on
+	 *
+	 * @param html   the html to scan
+	 * @param markup whether to keep tags and entities
+	 * @return the text passed on
+	 */
+	private static String scan(String html, boolean markup) {
+		StringBuilder text = new StringBuilder(html.length());
+		HtmlScanner scanner = new HtmlScanner(new HtmlScanner.Listener() {
+			@Override
+			public void link(String href) {
+				// only the text is needed
+			}
+
+			@Override
+			public void text(char c) {
+				text.append(c);
+			}
+		}, markup);
+		scanner.scan(html);
+		return text.toString();
 	}
 
 	/**
@@ -56,14 +118,27 @@ public class HtmlCleaner {
 	 *
 	 * <p><em>(View this comment as HTML in the "Javadoc" view in Eclipse.)</em>
 	 *
+	 * <p>A comment needs at least one character between its dashes, so
+	 * {@code <!---->} only ends at the next {@code -->}.
+	 *
 	 * @param html text including HTML comments to remove
 	 * @return text without any HTML comments
-	 *
-	 * @see String#replaceAll(String, String)
 	 */
 	public static String stripComments(String html) {
-		String regex = "(?s)<!--.+?-->";
-		return html.replaceAll(regex, "");
+		StringBuilder text = new StringBuilder(html.length());
+		int copied = 0;
+		int start = html.indexOf("<!--");
+		while (start >= 0) {
+			int end = html.indexOf("-->", start + 5);
+			if (end < 0) {
+				// no comment after this one can be closed either
+				break;
+			}
+			text.append(html, copied, start);
+			copied = end + 3;
+			start = html.indexOf("<!--", copied);
+		}
+		return text.append(html, copied, html.length()).toString();
 	}
 
 	/**
@@ -82,16 +157,26 @@ public class HtmlCleaner {
 	 * @param name name of the HTML element (like "style" or "script")
 	 * @return text without that HTML element
 	 *
-	 * @see String#formatted(Object...)
-	 * @see String#format(String, Object...)
-	 * @see String#replaceAll(String, String)
 	 */
 	public static String stripElement(String html, String name) {
-		String regex = "(?is)(<" + name + "\\b.*?>.*?</" + name + "\\b.*?>)(?i)|(?i)(<" + name + "\\b.*?>.*?</" + name
-				+ "\\b.*?>)";
-		String.format(regex); // TODO Remove
-		html = html.replaceAll(regex, "");
-		return html;
+		String open = "<" + name;
+		String close = "</" + name;
+		StringBuilder text = new StringBuilder(html.length());
+		int copied = 0;
+		int start = findTag(html, open, 0);
+		while (start >= 0) {
+			// an element that cannot be closed means no later one can be either
+			int openEnd = html.indexOf('>', start + open.length());
+			int end = openEnd < 0 ? -1 : findTag(html, close, openEnd + 1);
+			int closeEnd = end < 0 ? -1 : html.indexOf('>', end + close.length());
+			if (closeEnd < 0) {
+				break;
+			}
+			text.append(html, copied, start);
+			copied = closeEnd + 1;
+			start = findTag(html, open, copied);
+		}
+		return text.append(html, copied, html.length()).toString();
 	}
 
 	/**
@@ -106,32 +191,30 @@ public class HtmlCleaner {
 	 * <p><em>(View this comment as HTML in the "Javadoc" view in Eclipse.)</em>
 	 *
 	 * @see StringEscapeUtils#unescapeHtml4(String)
-	 * @see String#replaceAll(String, String)
 	 *
 	 * @param html text including HTML entities to remove
 	 * @return text with all HTML entities converted or removed
 	 */
 	public static String stripEntities(String html) {
 		html = StringEscapeUtils.unescapeHtml4(html);
-		html = html.replaceAll("&dash;", "");
+		html = html.replace("&dash;", "");
 		return html;
 	}
 
 	/**
-	 * Removes all HTML tags and certain block elements from the provided text.
-	 *
+	 * Removes all HTML tags and certain block elements from the provided text,
+	 * and converts the entities that are left. Everything is done in one pass by
+	 * {@link HtmlScanner}.
 	 *
 	 * @see #stripBlockElements(String)
 	 * @see #stripTags(String)
+	 * @see #stripEntities(String)
 	 *
 	 * @param html the HTML to strip tags and elements from
 	 * @return text clean of any HTML tags and certain block elements
 	 */
 	public static String stripHtml(String html) {
-		html = stripBlockElements(html);
-		html = stripTags(html);
-		html = stripEntities(html);
-		return html;
+		return scan(html, false);
 	}
 
 	/**
@@ -143,10 +226,26 @@ public class HtmlCleaner {
 	 * @param html text including HTML tags to remove
 	 * @return text without any HTML tags
 	 *
-	 * @see String#replaceAll(String, String)
 	 */
 	public static String stripTags(String html) {
-		String regex = "(?s)(<[!\\a-zA-Z][^>]*>)"; // (?s)(<[!\a-zA-Z][^>]*>)
-		return html.replaceAll(regex, "");
+		StringBuilder text = new StringBuilder(html.length());
+		int copied = 0;
+		int start = html.indexOf('<');
+		while ((start >= 0) && (start + 1 < html.length())) {
+			char first = html.charAt(start + 1);
+			// the character class of the original expression ran from BEL to 'z'
+			if ((first < 0x07) || (first > 'z')) {
+				start = html.indexOf('<', start + 1);
+				continue;
+			}
+			int end = html.indexOf('>', start + 2);
+			if (end < 0) {
+				break;
+			}
+			text.append(html, copied, start);
+			copied = end + 1;
+			start = html.indexOf('<', copied);
+		}
+		return text.append(html, copied, html.length()).toString();
 	}
 }
@@ -2,15 +2,20 @@ package edu.usfca.cs272;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.MalformedURLException;
-import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
+import edu.usfca.cs272.ConnectionPool.Connection;
+
 /**
  * A specialized version of {@link HttpsFetcher} that follows redirects and
  * returns HTML content if possible.
@@ -21,6 +26,33 @@ import java.util.Map;
  * @version Fall 2023
  */
 public class HtmlFetcher {
+	/**
+	 * Reads the body of an HTML page as it arrives
+	 */
+	@FunctionalInterface
+	public interface Handler {
+
+		/**
+		 * Reads the body of the page. The reader should not be used once this
+		 * returns.
+		 *
+		 * @param html the body of the page
+		 * @throws IOException if unable to read the body
+		 */
+		void read(Reader html) throws IOException;
+	}
+
+	/**
+	 * The most bytes of a body that is not HTML to read just to keep the
+	 * connection open
+	 */
+	private static final int MAX_SKIP = 64 * 1024;
+
+	/**
+	 * The connections kept open between fetches, shared by every crawler
+	 */
+	private static final ConnectionPool POOL = new ConnectionPool();
+
 	/**
 	 * Converts the {@link String} url into a {@link URL} object and then calls
 	 * {@link #fetch(URL, int)} with 0 redirects.
@@ -70,17 +102,17 @@ public class HtmlFetcher {
 	 * code is 200 and the content type is HTML, returns the HTML as a single
 	 * string. If the status code is a valid redirect, will follow that redirect if
 	 * the number of redirects is greater than 0. Otherwise, returns {@code null}.
+	 * Connections are kept open and reused for later fetches from the same host.
 	 *
 	 * @param url the url to fetch
 	 * @param redirects the number of times to follow redirects
 	 * @return the html or {@code null} if unable to fetch the resource or the
 	 *   resource is not html
 	 *
-	 * @see HttpsFetcher#openConnection(URL)
-	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-	 * @see HttpsFetcher#getHeaderFields(BufferedReader)
-	 *
-	 * @see String#join(CharSequence, CharSequence...)
+	 * @see ConnectionPool
+	 * @see HttpsFetcher#printKeepAliveRequest(OutputStream, URL)
+	 * @see HttpsFetcher#getHeaderFields(InputStream)
+	 * @see #fetch(URL, int, Handler)
 	 *
 	 * @see #isHtml(Map)
 	 * @see #getRedirect(Map)
@@ -88,42 +120,155 @@ public class HtmlFetcher {
 	public static String fetch(URL url, int redirects) {
 		StringBuilder html = new StringBuilder();
 
-		try (Socket socket = HttpsFetcher.openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);) {
+		try {
+			fetch(url, redirects, reader -> {
+				BufferedReader lines = new BufferedReader(reader);
+				html.append("\n");
+				String line;
+				while ((line = lines.readLine()) != null) {
+					html.append(line);
+					html.append("\n");
+				}
+			});
+		} catch (IOException e) {
+			return null;
+		}
 
-			printGetRequest(request, url);
+		return html.toString();
+	}
 
-			Map<String, List<String>> headers = HttpsFetcher.getHeaderFields(response);
+	/**
+	 * Fetches the resource at the URL like {@link #fetch(URL, int)}, but hands the
+	 * body to the handler as it arrives instead of returning it. The handler is
+	 * only called if the status code is 200 and the content type is HTML, and
+	 * reads straight from the connection, so the page is never held in memory
+	 * unless the handler keeps it. A compressed body is decompressed as it is
+	 * read, and decoded with the charset of its content type.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param handler reads the body of the page
+	 * @return {@code true} if the page was HTML and handed to the handler
+	 * @throws IOException if unable to fetch the resource or the handler fails
+	 *
+	 * @see HttpsFetcher#openBody(InputStream, Map)
+	 * @see HttpsFetcher#decode(InputStream, String)
+	 * @see #getCharset(Map)
+	 */
+	public static boolean fetch(URL url, int redirects, Handler handler) throws IOException {
+		Map<String, List<String>> headers = fetch(url, redirects, Map.of(), handler);
+		return (getStatusCode(headers) == 200) && isHtml(headers);
+	}
 
-			if ((getStatusCode(headers) == 200) && isHtml(headers)) {
-				html.append("");
-				List<String> content = response.lines().toList();
-				html.append("\n");
-				for (String line : content) {
-					if (line != null) {
-						html.append(line);
-						html.append("\n");
+	/**
+	 * Fetches the resource at the URL like {@link #fetch(URL, int, Handler)},
+	 * sending the extra headers with the first request. Used for conditional
+	 * requests, where a 304 status code means the page has not changed and there
+	 * is no body to read. The conditions describe the page that was asked for, so
+	 * they are not sent to the page a redirect points to.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param conditions the extra header names and values to send, such as
+	 *   If-None-Match
+	 * @param handler reads the body of the page
+	 * @return the headers of the last response, after any redirects
+	 * @throws IOException if unable to fetch the resource or the handler fails
+	 *
+	 * @see HttpsFetcher#printKeepAliveRequest(OutputStream, URL, Map)
+	 */
+	public static Map<String, List<String>> fetch(URL url, int redirects, Map<String, String> conditions,
+			Handler handler) throws IOException {
+		Map<String, List<String>> headers = fetchHeaders(url, conditions, handler);
+		if ((getRedirect(headers) != null) && (redirects > 0)) {
+			// the location may be relative to the page that was asked for
+			return fetch(new URL(url, getRedirect(headers)), redirects - 1, Map.of(), handler);
+		}
+		return headers;
+	}
+
+	/**
+	 * Fetches the headers of the resource on a pooled connection, and hands the
+	 * body to the handler if the status code is 200 and the content type is HTML.
+	 * A reused connection the server has closed in the meantime is thrown away
+	 * and the request is sent once more on a new connection, as long as no
+	 * response has been read from it yet.
+	 *
+	 * @param url the url to fetch
+	 * @param conditions the extra header names and values to send
+	 * @param handler reads the body if it is HTML
+	 * @return the headers
+	 * @throws IOException if unable to fetch the resource or the handler fails
+	 */
+	private static Map<String, List<String>> fetchHeaders(URL url, Map<String, String> conditions, Handler handler)
+			throws IOException {
+		boolean retried = false;
+		while (true) {
+			Connection connection = POOL.acquire(url, !retried);
+			Map<String, List<String>> headers = null;
+			boolean reusable = false;
+			try {
+				HttpsFetcher.printKeepAliveRequest(connection.getOutput(), url, conditions);
+				headers = HttpsFetcher.getHeaderFields(connection.getInput());
+				if ((getStatusCode(headers) == 200) && isHtml(headers)) {
+					InputStream body = HttpsFetcher.openBody(connection.getInput(), headers);
+					String encoding = HttpsFetcher.getHeader(headers, "Content-Encoding");
+					try (InputStream decoded = HttpsFetcher.decode(body, encoding)) {
+						handler.read(new InputStreamReader(decoded, getCharset(headers)));
+						// whatever the handler left unread has to go before the next request
+						reusable = HttpsFetcher.isKeepAlive(headers) && (body.skip(MAX_SKIP) < MAX_SKIP);
 					}
+				} else if (HttpsFetcher.isKeepAlive(headers) && isSmall(headers)) {
+					// cheaper to skip a short body than to open a new connection later
+					HttpsFetcher.readBody(connection.getInput(), headers);
+					reusable = true;
+				}
+				return headers;
+			} catch (IOException e) {
+				if ((headers != null) || !connection.isReused() || retried) {
+					throw e;
 				}
+				retried = true;
+			} finally {
+				POOL.release(connection, reusable);
 			}
+		}
+	}
 
-			/**
-			 * If the status code is a valid redirect, will follow that redirect if
-			 * the number of redirects is greater than 0. Otherwise, returns {@code null}.
-			 *
-			 **/
-			if ((getRedirect(headers) != null) && (redirects > 0)) {
-				html.append(""); // TODO Remove
-				return fetch(getRedirect(headers), redirects - 1);
-			}
+	/**
+	 * Returns the charset named by the first "Content-Type" header, or UTF-8 if
+	 * there is none or it is not supported.
+	 *
+	 * @param headers the HTTP/1.1 headers to parse
+	 * @return the charset to decode the body with
+	 */
+	public static Charset getCharset(Map<String, List<String>> headers) {
+		return getCharset(HttpsFetcher.getHeader(headers, "Content-Type"));
+	}
 
-		} catch (IOException e) {
-			html = null; // TODO return null;
+	/**
+	 * Returns the charset parameter of a content type, like "ISO-8859-1" in
+	 * {@code text/html; charset="ISO-8859-1"}, or UTF-8 if there is none or it is
+	 * not supported.
+	 *
+	 * @param type the content type, or null
+	 * @return the charset to decode the body with
+	 */
+	public static Charset getCharset(String type) {
+		if (type != null) {
+			for (String parameter : type.split(";")) {
+				int equals = parameter.indexOf('=');
+				if ((equals > 0) && parameter.substring(0, equals).strip().equalsIgnoreCase("charset")) {
+					String name = parameter.substring(equals + 1).strip().replace("\"", "");
+					try {
+						return Charset.forName(name);
+					} catch (IllegalArgumentException e) {
+						break;
+					}
+				}
+			}
 		}
-
-		return html.toString();
+		return StandardCharsets.UTF_8;
 	}
 
 	/**
@@ -153,33 +298,48 @@ public class HtmlFetcher {
 	 */
 	public static int getStatusCode(Map<String, List<String>> headers) {
 		if (headers.containsKey(null)) {
-			return Integer.parseInt(headers.get(null).get(0).substring(9, 12));
+			String status = headers.get(null).get(0);
+			try {
+				return Integer.parseInt(status.substring(9, 12));
+			} catch (NumberFormatException | IndexOutOfBoundsException e) {
+				return -1;
+			}
 		}
 		return -1;
 
 	}
 
 	/**
-	 * Returns {@code true} if and only if there is a "Content-Type" header and the
-	 * first value of that header starts with the value "text/html"
-	 * (case-insensitive).
+	 * Returns {@code true} if and only if there is a "Content-Type" header, with
+	 * its name in any case, and the first value of that header contains the value
+	 * "text/html".
 	 *
 	 * @param headers the HTTP/1.1 headers to parse
 	 * @return {@code true} if the headers indicate the content type is HTML
 	 */
 	public static boolean isHtml(Map<String, List<String>> headers) {
-		if (headers.containsKey("Content-Type")) {
-			if (headers.get("Content-Type") != null) {
-				for (String header : headers.get("Content-Type")) {
-					if (header.contains("text/html")) {
-						return true;
-					} else {
-						return false;
-					}
-				}
-			}
+		String type = HttpsFetcher.getHeader(headers, "Content-Type");
+		return (type != null) && type.contains("text/html");
+	}
+
+	/**
+	 * Returns {@code true} if the body is known to be short enough to read and
+	 * throw away so the connection can be reused
+	 *
+	 * @param headers the HTTP/1.1 headers to parse
+	 * @return {@code true} if the body has a small content length, or there is
+	 *   never a body for a 304 status code
+	 */
+	private static boolean isSmall(Map<String, List<String>> headers) {
+		if (getStatusCode(headers) == 304) {
+			return true;
+		}
+		String length = HttpsFetcher.getHeader(headers, "Content-Length");
+		try {
+			return (length != null) && (Long.parseLong(length.strip()) <= MAX_SKIP);
+		} catch (NumberFormatException e) {
+			return false;
 		}
-		return false;
 	}
 
 	/**
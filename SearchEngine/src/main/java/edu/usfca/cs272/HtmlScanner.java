@@ -0,0 +1,532 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Reads HTML one character at a time and passes on its text and links, so a
+ * page never has to be held in memory as a whole. In one pass it drops
+ * comments, the head, style, script, noscript, iframe and svg elements and
+ * every tag, decodes HTML 4 entities in the text, and reports the href of
+ * every anchor tag outside of the dropped elements. Only a tag or an entity is
+ * kept while it is being read, and both are capped in length.
+ *
+ * <p>
+ * The text passed on is the same as {@link HtmlCleaner#stripHtml(String)}
+ * would return for well formed pages, and the links are the ones
+ * {@link LinkFinder} would find after
+ * {@link HtmlCleaner#stripBlockElements(String)}. One difference is that an
+ * element like script that is never closed is dropped to the end of the page,
+ * since the scanner cannot look ahead for its closing tag, and a head that is
+ * never closed ends at the body tag instead.
+ *
+ * <p>
+ * In markup mode, tags other than the dropped elements are passed on as text
+ * and entities are left alone, like
+ * {@link HtmlCleaner#stripBlockElements(String)}.
+ *
+ * @see HtmlCleaner
+ * @see LinkFinder
+ */
+public class HtmlScanner {
+
+	/**
+	 * Receives the text and links of the page as they are read
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for the href of every anchor tag outside of the dropped elements
+		 *
+		 * @param href the link exactly as it appears in the tag
+		 */
+		void link(String href);
+
+		/**
+		 * Called for every character of text, with tags removed and entities
+		 * decoded
+		 *
+		 * @param c the next character of text
+		 */
+		void text(char c);
+	}
+
+	/**
+	 * What the scanner is in the middle of reading
+	 */
+	private enum State {
+		/** A comment, up to the closing dashes */
+		COMMENT,
+		/** The rest of the closing tag of a dropped element */
+		END,
+		/** The character right after a less than sign */
+		OPEN,
+		/** The rest of a tag too long to keep, passed on in markup mode */
+		PASS,
+		/** The inside of a dropped element */
+		SKIP,
+		/** A comment inside of a dropped element */
+		SKIP_COMMENT,
+		/** The character after the closing tag name of a dropped element */
+		SKIP_NAME,
+
+		/** The inside of a tag */
+		TAG,
+		/** Text */
+		TEXT
+	}
+
+	/**
+	 * The elements whose contents are dropped
+	 */
+	private static final String[] BLOCKS = { "head", "style", "script", "noscript", "iframe", "svg" };
+
+	/**
+	 * The number of characters read from the reader at a time
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The start of a comment
+	 */
+	private static final String COMMENT_START = "<!--";
+
+	/**
+	 * Finds the first double quoted href in an anchor tag, like {@link LinkFinder}
+	 */
+	private static final Pattern HREF = Pattern.compile("(?i)href\\s*=\\s*\"([^\"]+)\"");
+
+	/**
+	 * The longest entity that is decoded, longer ones are left as text
+	 */
+	private static final int MAX_ENTITY = 32;
+
+	/**
+	 * The most characters of a tag that are kept, the rest is skipped over
+	 */
+	private static final int MAX_TAG = 16 * 1024;
+
+	/**
+	 * Whether only whitespace has been read so far
+	 */
+	private boolean blank;
+
+	/**
+	 * How many characters of the comment have been read
+	 */
+	private int commentLength;
+
+	/**
+	 * How many dashes in a row were just read inside of a comment
+	 */
+	private int dashes;
+
+	/**
+	 * The entity being read, or empty if there is none
+	 */
+	private final StringBuilder entity;
+
+	/**
+	 * The tags that end the dropped element, such as "&lt;/script"
+	 */
+	private String[] ends;
+
+	/**
+	 * The start of a tag that a dropped element began inside of, which goes on
+	 * once the element is over
+	 */
+	private final StringBuilder held;
+
+	/**
+	 * The receiver of the text and links
+	 */
+	private final Listener listener;
+
+	/**
+	 * Whether tags and entities are passed on as they are
+	 */
+	private final boolean markup;
+
+	/**
+	 * How much of each end tag, and then of a comment start, was just read
+	 * inside of a dropped element
+	 */
+	private int[] matched;
+
+	/**
+	 * What the scanner is in the middle of reading
+	 */
+	private State state;
+
+	/**
+	 * The tag being read
+	 */
+	private final StringBuilder tag;
+
+	/**
+	 * Initializes a scanner that passes on text only.
+	 *
+	 * @param listener the receiver of the text and links
+	 */
+	public HtmlScanner(Listener listener) {
+		this(listener, false);
+	}
+
+	/**
+	 * Initializes a scanner.
+	 *
+	 * @param listener the receiver of the text and links
+	 * @param markup   whether to pass on tags and entities as they are instead of
+	 *                 removing and decoding them
+	 */
+	public HtmlScanner(Listener listener, boolean markup) {
+		this.listener = listener;
+		this.markup = markup;
+		this.entity = new StringBuilder();
+		this.held = new StringBuilder();
+		this.tag = new StringBuilder();
+		this.state = State.TEXT;
+		this.blank = true;
+	}
+
+	/**
+	 * Returns {@code true} if the character may follow a tag name without being
+	 * part of it, like the end of a word in a regular expression
+	 *
+	 * @param text  the text to check
+	 * @param index the index of the character after the name
+	 * @return {@code true} if the name ends there
+	 */
+	private static boolean endsName(CharSequence text, int index) {
+		return (index >= text.length()) || !isWordChar(text.charAt(index));
+	}
+
+	/**
+	 * Passes a character of text on to the listener, decoding entities on the
+	 * way. Entities are decoded after tags are removed, so an entity may be split
+	 * by a tag.
+	 *
+	 * @param c the character of text
+	 */
+	private void emit(char c) {
+		if (markup) {
+			listener.text(c);
+			return;
+		}
+		if (!entity.isEmpty()) {
+			if (isEntityChar(c) && (entity.length() < MAX_ENTITY)) {
+				entity.append(c);
+				return;
+			}
+			if (c == ';') {
+				entity.append(c);
+				String decoded = entity.toString();
+				entity.setLength(0);
+				if (!decoded.equals("&dash;")) {
+					decoded = StringEscapeUtils.unescapeHtml4(decoded);
+					for (int i = 0; i < decoded.length(); i++) {
+						listener.text(decoded.charAt(i));
+					}
+				}
+				return;
+			}
+			flushEntity();
+		}
+		if (c == '&') {
+			entity.append(c);
+		} else {
+			listener.text(c);
+		}
+	}
+
+	/**
+	 * Passes on the characters of the tag as text
+	 *
+	 * @param end the number of characters to pass on
+	 */
+	private void emitTag(int end) {
+		for (int i = 0; i < end; i++) {
+			emit(tag.charAt(i));
+		}
+	}
+
+	/**
+	 * Handles a tag once its closing bracket is read. A dropped element may start
+	 * inside of something that only looks like a tag, such as "a &lt; b
+	 * &lt;script&gt;", and is still dropped.
+	 */
+	private void endTag() {
+		state = State.TEXT;
+		if ((tag.length() > 2) && ((tag.charAt(1) | 0x20) == 'a') && isSpace(tag.charAt(2))) {
+			Matcher matcher = HREF.matcher(tag);
+			if (matcher.find(3)) {
+				String href = matcher.group(1);
+				if (!href.contains("<a")) {
+					listener.link(href);
+				}
+			}
+		}
+		for (int start = 0; start < tag.length(); start++) {
+			if (tag.charAt(start) != '<') {
+				continue;
+			}
+			for (String block : BLOCKS) {
+				if (startsWith(tag, start + 1, block) && endsName(tag, start + block.length() + 1)) {
+					if (markup) {
+						emitTag(start);
+					} else if (start > 0) {
+						held.append(tag, 0, start);
+					}
+					ends = block.equals("head") ? new String[] { "</head", "<body" } : new String[] { "</" + block };
+					matched = new int[ends.length + 1];
+					state = State.SKIP;
+					return;
+				}
+			}
+		}
+		if (markup) {
+			emitTag(tag.length());
+			emit('>');
+		}
+	}
+
+	/**
+	 * Reads one character of the page
+	 *
+	 * @param c the next character
+	 */
+	private void feed(char c) {
+		if (blank && !Character.isWhitespace(c)) {
+			blank = false;
+		}
+		switch (state) {
+			case TEXT -> {
+				if (c == '<') {
+					state = State.OPEN;
+				} else {
+					emit(c);
+				}
+			}
+			case OPEN -> {
+				// the same characters HtmlCleaner#stripTags accepts after the bracket
+				if ((c >= 0x07) && (c <= 'z')) {
+					tag.setLength(0);
+					tag.append('<').append(c);
+					state = State.TAG;
+				} else {
+					state = State.TEXT;
+					emit('<');
+					feed(c);
+				}
+			}
+			case TAG -> {
+				if (c == '>') {
+					endTag();
+				} else if (tag.length() >= MAX_TAG) {
+					if (markup) {
+						emitTag(tag.length());
+						emit(c);
+						state = State.PASS;
+					}
+				} else {
+					tag.append(c);
+					if ((tag.length() == COMMENT_START.length()) && COMMENT_START.contentEquals(tag)) {
+						state = State.COMMENT;
+						commentLength = 0;
+						dashes = 0;
+					}
+				}
+			}
+			case COMMENT, SKIP_COMMENT -> {
+				// the closing dashes may not overlap the opening ones, but <!----> is closed
+				commentLength++;
+				if (c == '-') {
+					dashes++;
+				} else {
+					if ((c == '>') && (dashes >= 2) && (commentLength >= 3)) {
+						state = state == State.COMMENT ? State.TEXT : State.SKIP;
+					}
+					dashes = 0;
+				}
+			}
+			case SKIP -> skip(c);
+			case SKIP_NAME -> {
+				if (isWordChar(c)) {
+					state = State.SKIP;
+				} else {
+					state = State.END;
+					feed(c);
+				}
+			}
+			case END -> {
+				if ((c == '>') && held.isEmpty()) {
+					state = State.TEXT;
+				} else if (c == '>') {
+					tag.setLength(0);
+					tag.append(held);
+					held.setLength(0);
+					state = State.TAG;
+				}
+			}
+			case PASS -> {
+				emit(c);
+				if (c == '>') {
+					state = State.TEXT;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finishes reading the page, passing on any text that was held back
+	 */
+	public void finish() {
+		switch (state) {
+			case OPEN -> emit('<');
+			case TAG -> emitTag(tag.length()); // a bracket that is never closed is not a tag
+			default -> {
+				// anything else that is left over was going to be removed
+			}
+		}
+		state = State.TEXT;
+		held.setLength(0);
+		flushEntity();
+	}
+
+	/**
+	 * Passes on an entity that turned out not to be one as plain text
+	 */
+	private void flushEntity() {
+		for (int i = 0; i < entity.length(); i++) {
+			listener.text(entity.charAt(i));
+		}
+		entity.setLength(0);
+	}
+
+	/**
+	 * @return {@code true} if only whitespace has been read so far
+	 */
+	public boolean isBlank() {
+		return blank;
+	}
+
+	/**
+	 * @param c the character to check
+	 * @return {@code true} if the character can be part of an entity name
+	 */
+	private static boolean isEntityChar(char c) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '#');
+	}
+
+	/**
+	 * @param c the character to check
+	 * @return {@code true} if the character is whitespace in a regular expression
+	 */
+	private static boolean isSpace(char c) {
+		return (c == ' ') || (c == '\t') || (c == '\n') || (c == 0x0B) || (c == '\f') || (c == '\r');
+	}
+
+	/**
+	 * @param c the character to check
+	 * @return {@code true} if the character counts as part of a word for a word
+	 *         boundary in a regular expression
+	 */
+	static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || (c == '_');
+	}
+
+	/**
+	 * Converts only ASCII letters to lower case, like a case insensitive regular
+	 * expression
+	 *
+	 * @param c the character to convert
+	 * @return the character in lower case
+	 */
+	private static char lower(char c) {
+		return ((c >= 'A') && (c <= 'Z')) ? (char) (c | 0x20) : c;
+	}
+
+	/**
+	 * Reads the whole page from the reader and finishes it
+	 *
+	 * @param html the reader to read the page from
+	 * @throws IOException if unable to read the page
+	 */
+	public void scan(Reader html) throws IOException {
+		char[] buffer = new char[BUFFER_SIZE];
+		int read;
+		while ((read = html.read(buffer)) >= 0) {
+			for (int i = 0; i < read; i++) {
+				feed(buffer[i]);
+			}
+		}
+		finish();
+	}
+
+	/**
+	 * Reads the whole page and finishes it
+	 *
+	 * @param html the page to read
+	 */
+	public void scan(CharSequence html) {
+		for (int i = 0; i < html.length(); i++) {
+			feed(html.charAt(i));
+		}
+		finish();
+	}
+
+	/**
+	 * Looks for the end of a dropped element, or the start of a comment inside of
+	 * it, without keeping anything else
+	 *
+	 * @param c the next character inside of the element
+	 */
+	private void skip(char c) {
+		int comment = ends.length;
+		for (int i = 0; i <= comment; i++) {
+			String target = i < comment ? ends[i] : COMMENT_START;
+			if ((matched[i] > 0) && (lower(c) == target.charAt(matched[i]))) {
+				matched[i]++;
+			} else {
+				matched[i] = c == '<' ? 1 : 0;
+			}
+			if (matched[i] == target.length()) {
+				Arrays.fill(matched, 0);
+				if (i == comment) {
+					state = State.SKIP_COMMENT;
+					commentLength = 0;
+					dashes = 0;
+				} else {
+					state = State.SKIP_NAME;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the text has the lower case name at the index,
+	 * ignoring the case of ASCII letters
+	 *
+	 * @param text  the text to check
+	 * @param start the index to check at
+	 * @param name  the name in lower case
+	 * @return {@code true} if the name is there
+	 */
+	private static boolean startsWith(CharSequence text, int start, String name) {
+		if (start + name.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (lower(text.charAt(start + i)) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
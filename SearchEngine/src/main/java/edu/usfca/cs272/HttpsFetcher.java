@@ -3,10 +3,15 @@ package edu.usfca.cs272;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
 import java.net.MalformedURLException;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
@@ -14,7 +19,11 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
@@ -27,6 +36,163 @@ import javax.net.ssl.SSLSocketFactory;
  * @version Fall 2023
  */
 public class HttpsFetcher {
+	/**
+	 * The body of a response sent with chunked transfer encoding
+	 */
+	private static class ChunkedBody extends InputStream {
+		/**
+		 * Whether the last chunk and the trailers have been read
+		 */
+		private boolean done;
+
+		/**
+		 * The bytes left in the current chunk
+		 */
+		private int left;
+
+		/**
+		 * The response the chunks are read from
+		 */
+		private final InputStream response;
+
+		/**
+		 * Initializes the body.
+		 *
+		 * @param response the stream positioned right after the headers
+		 */
+		public ChunkedBody(InputStream response) {
+			this.response = response;
+			this.left = 0;
+			this.done = false;
+		}
+
+		/**
+		 * Reads the size of the next chunk, and the trailers after the last one
+		 *
+		 * @return {@code true} if there is another chunk
+		 * @throws IOException if unable to read the chunk size or it is malformed
+		 */
+		private boolean nextChunk() throws IOException {
+			if (done) {
+				return false;
+			}
+			String size = readLine(response);
+			if (size == null) {
+				throw new EOFException("Connection closed in the middle of a chunked body");
+			}
+			int end = size.indexOf(';');
+			try {
+				left = Integer.parseInt((end < 0 ? size : size.substring(0, end)).strip(), 16);
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Malformed chunk size: " + size);
+			}
+			if (left < 0) {
+				throw new ProtocolException("Malformed chunk size: " + size);
+			}
+			if (left == 0) {
+				// skip any trailer headers up to the blank line
+				String trailer;
+				while (((trailer = readLine(response)) != null) && !trailer.isEmpty()) {
+					continue;
+				}
+				done = true;
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if ((left == 0) && !nextChunk()) {
+				return -1;
+			}
+			int read = response.read(buffer, offset, Math.min(length, left));
+			if (read < 0) {
+				throw new EOFException("Connection closed in the middle of a chunk");
+			}
+			left -= read;
+			if (left == 0) {
+				// the line break after the chunk data
+				readLine(response);
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * The body of a response with a known length, or one that runs until the
+	 * connection is closed
+	 */
+	private static class LengthBody extends InputStream {
+		/**
+		 * The bytes left in the body, or -1 if it runs until the connection closes
+		 */
+		private long left;
+
+		/**
+		 * The response the body is read from
+		 */
+		private final InputStream response;
+
+		/**
+		 * Initializes the body.
+		 *
+		 * @param response the stream positioned right after the headers
+		 * @param length the length of the body, or -1 if it is not known
+		 */
+		public LengthBody(InputStream response, long length) {
+			this.response = response;
+			this.left = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (left == 0) {
+				return -1;
+			}
+			int wanted = left < 0 ? length : (int) Math.min(length, left);
+			int read = response.read(buffer, offset, wanted);
+			if (read < 0) {
+				if (left > 0) {
+					throw new EOFException("Connection closed with " + left + " bytes of the body left");
+				}
+				return -1;
+			}
+			if (left > 0) {
+				left -= read;
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * The content encodings the keep-alive request accepts
+	 */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/**
+	 * The size of the buffer used to decompress a body
+	 */
+	private static final int INFLATE_BUFFER = 8192;
+
 	/**
 	 * See {@link #fetchUrl(URL)} for details.
 	 *
@@ -98,6 +264,197 @@ public class HttpsFetcher {
 		return results;
 	}
 
+	/**
+	 * Returns the first value of a header, ignoring the case of the header name
+	 *
+	 * @param headers the headers to search
+	 * @param name the name of the header
+	 * @return the first value of the header or {@code null} if it is missing
+	 */
+	public static String getHeader(Map<String, List<String>> headers, String name) {
+		for (var header : headers.entrySet()) {
+			if ((header.getKey() != null) && header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the header fields from a stream associated with a socket connection
+	 * without reading any further, so the body can be read from the same stream
+	 * afterwards.
+	 *
+	 * @param response a stream created from a socket connection
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if unable to read from socket or the connection was
+	 *   closed before a response
+	 *
+	 * @see #getHeaderFields(BufferedReader)
+	 */
+	public static Map<String, List<String>> getHeaderFields(InputStream response) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		String line = readLine(response);
+		if (line == null) {
+			throw new EOFException("Connection closed before a response was sent");
+		}
+		results.put(null, List.of(line));
+
+		while (((line = readLine(response)) != null) && !line.isBlank()) {
+			String[] split = line.split(":\\s*", 2);
+			if (split.length == 2) {
+				results.putIfAbsent(split[0], new ArrayList<>());
+				results.get(split[0]).add(split[1]);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns {@code true} if another request can be sent on the same connection
+	 * once the body has been read, which requires HTTP/1.1, a body with a known
+	 * length and no request from the server to close the connection.
+	 *
+	 * @param headers the response headers
+	 * @return {@code true} if the connection can be reused
+	 */
+	public static boolean isKeepAlive(Map<String, List<String>> headers) {
+		String status = headers.get(null).get(0);
+		String connection = getHeader(headers, "Connection");
+		String encoding = getHeader(headers, "Transfer-Encoding");
+		return status.startsWith("HTTP/1.1") && ((connection == null) || !connection.equalsIgnoreCase("close"))
+				&& ((getHeader(headers, "Content-Length") != null)
+						|| ((encoding != null) && encoding.equalsIgnoreCase("chunked"))
+						|| !hasBody(headers));
+	}
+
+	/**
+	 * @param headers the response headers
+	 * @return {@code false} if the status code means there is never a body
+	 */
+	private static boolean hasBody(Map<String, List<String>> headers) {
+		String status = headers.get(null).get(0);
+		return !(status.startsWith("1", 9) || status.startsWith("204", 9) || status.startsWith("304", 9));
+	}
+
+	/**
+	 * Returns a stream over the body of a response that ends where the body ends,
+	 * using the framing given by its headers: chunked transfer encoding, a content
+	 * length, or everything until the connection is closed. Closing the returned
+	 * stream does not close the response stream.
+	 *
+	 * @param response the stream positioned right after the headers
+	 * @param headers the response headers
+	 * @return the body of the response
+	 * @throws ProtocolException if the content length is not a valid length
+	 */
+	public static InputStream openBody(InputStream response, Map<String, List<String>> headers)
+			throws ProtocolException {
+		if (!hasBody(headers)) {
+			return InputStream.nullInputStream();
+		}
+		String encoding = getHeader(headers, "Transfer-Encoding");
+		if ((encoding != null) && encoding.equalsIgnoreCase("chunked")) {
+			return new ChunkedBody(response);
+		}
+		String length = getHeader(headers, "Content-Length");
+		if (length == null) {
+			return new LengthBody(response, -1);
+		}
+		try {
+			long parsed = Long.parseLong(length.strip());
+			if (parsed >= 0) {
+				return new LengthBody(response, parsed);
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new ProtocolException("Malformed content length: " + length);
+	}
+
+	/**
+	 * Wraps the body so it is decompressed as it is read, according to the
+	 * Content-Encoding of the response. Deflate is accepted both with the zlib
+	 * wrapper the standard asks for and without it, since servers send both.
+	 * Closing the returned stream releases the decompressor.
+	 *
+	 * @param body the body as sent, from {@link #openBody(InputStream, Map)}
+	 * @param encoding the Content-Encoding header, or null if there is none
+	 * @return the decompressed body
+	 * @throws IOException if the encoding is not supported or the body cannot
+	 *   be decompressed
+	 */
+	public static InputStream decode(InputStream body, String encoding) throws IOException {
+		String name = encoding == null ? "" : encoding.strip().toLowerCase(Locale.ROOT);
+		switch (name) {
+			case "", "identity" -> {
+				return body;
+			}
+			case "gzip", "x-gzip" -> {
+				return new GZIPInputStream(body, INFLATE_BUFFER);
+			}
+			case "deflate" -> {
+				PushbackInputStream input = new PushbackInputStream(body, 2);
+				byte[] start = input.readNBytes(2);
+				input.unread(start);
+				// a zlib header is a deflate method byte that makes a multiple of 31 with the next
+				boolean zlib = (start.length == 2) && ((start[0] & 0x0F) == 8)
+						&& ((((start[0] & 0xFF) << 8) | (start[1] & 0xFF)) % 31 == 0);
+				return new InflaterInputStream(input, new Inflater(!zlib), INFLATE_BUFFER) {
+					@Override
+					public void close() throws IOException {
+						inf.end();
+						super.close();
+					}
+				};
+			}
+			default -> throw new IOException("Unsupported content encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * Reads the body of a response using the framing given by its headers: chunked
+	 * transfer encoding, a content length, or everything until the connection is
+	 * closed.
+	 *
+	 * @param response the stream positioned right after the headers
+	 * @param headers the response headers
+	 * @return the bytes of the body
+	 * @throws IOException if unable to read the body or it is cut short
+	 *
+	 * @see #openBody(InputStream, Map)
+	 */
+	public static byte[] readBody(InputStream response, Map<String, List<String>> headers) throws IOException {
+		try (InputStream body = openBody(response, headers)) {
+			return body.readAllBytes();
+		}
+	}
+
+	/**
+	 * Reads a single line ending in a line feed, with any carriage return removed.
+	 *
+	 * @param input the stream to read from
+	 * @return the line or {@code null} if the stream ended before any characters
+	 * @throws IOException if unable to read from the stream
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while (((c = input.read()) != -1) && (c != '\n')) {
+			line.append((char) c);
+		}
+		if ((c == -1) && line.isEmpty()) {
+			return null;
+		}
+		int last = line.length() - 1;
+		if ((last >= 0) && (line.charAt(last) == '\r')) {
+			line.setLength(last);
+		}
+		return line.toString();
+	}
+
 	/**
 	 * Uses a {@link Socket} to open a connection to the web server associated with
 	 * the provided URL. Supports HTTP and HTTPS connections.
@@ -139,6 +496,46 @@ public class HttpsFetcher {
 		writer.flush();
 	}
 
+	/**
+	 * Writes an HTTP GET request that asks the server to keep the connection open
+	 * afterwards, and accepts a compressed body.
+	 *
+	 * @see #decode(InputStream, String)
+	 * @param output a stream created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @throws IOException if unable to write request to socket
+	 */
+	public static void printKeepAliveRequest(OutputStream output, URL url) throws IOException {
+		printKeepAliveRequest(output, url, Map.of());
+	}
+
+	/**
+	 * Writes an HTTP GET request like {@link #printKeepAliveRequest(OutputStream, URL)}
+	 * with some extra headers, such as the conditions of a conditional request.
+	 *
+	 * @param output a stream created from a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @param headers the extra header names and values to send
+	 * @throws IOException if unable to write request to socket
+	 */
+	public static void printKeepAliveRequest(OutputStream output, URL url, Map<String, String> headers)
+			throws IOException {
+		String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		String resource = url.getFile().isBlank() ? "/" : url.getFile();
+
+		StringBuilder request = new StringBuilder();
+		request.append("GET ").append(resource).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(host).append("\r\n");
+		request.append("Connection: keep-alive\r\n");
+		request.append("Accept-Encoding: ").append(ACCEPT_ENCODING).append("\r\n");
+		for (var header : headers.entrySet()) {
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		request.append("\r\n");
+		output.write(request.toString().getBytes(UTF_8));
+		output.flush();
+	}
+
 	/**
 	 * Writes a simple HTTP GET request to the provided socket writer.
 	 *
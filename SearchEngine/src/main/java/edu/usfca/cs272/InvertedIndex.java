@@ -3,11 +3,15 @@ package edu.usfca.cs272;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -67,8 +71,7 @@ public class InvertedIndex {
 		 * @return returns the score of a search result
 		 */
 		public String getFormattedScore() {
-			String score = String.format("%.8f", theScore);
-			return score;
+			return FixedPointFormatter.format(theScore);
 		}
 
 		/**
@@ -182,6 +185,35 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * adds many positions of a word at a single location to the index at once
+	 *
+	 * @param word      the word to add to the data structure
+	 * @param location  the path at which to add the data to
+	 * @param positions the array holding the positions to add
+	 * @param count     how many positions from the start of the array to add
+	 */
+	public void addPositions(String word, String location, int[] positions, int count) {
+		var locations = index.get(word);
+		if (locations == null) {
+			locations = new TreeMap<>();
+			index.put(word, locations);
+		}
+
+		var existing = locations.get(location);
+		if (existing == null) {
+			existing = new TreeSet<>();
+			locations.put(location, existing);
+		}
+		int added = 0;
+		for (int i = 0; i < count; i++) {
+			if (existing.add(positions[i])) {
+				added++;
+			}
+		}
+		counts.put(location, counts.getOrDefault(location, 0) + added);
+	}
+
 	/**
 	 * adds a word, a location, and a position to the index
 	 *
@@ -207,6 +239,58 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * Finds the unsorted search results for words that match the queries exactly
+	 *
+	 * @param queries The set of queries to search for
+	 * @return the search results in no particular order
+	 */
+	private ArrayList<SearchResult> collectExact(Set<String> queries) {
+		ArrayList<SearchResult> searchRank = new ArrayList<SearchResult>();
+		Map<String, SearchResult> lookup = new HashMap<String, SearchResult>();
+		for (String prefix : queries) {
+			var locations = index.get(prefix);
+			if (locations != null) {
+				searchHelper(locations, lookup, searchRank);
+			}
+		}
+		return searchRank;
+	}
+
+	/**
+	 * Finds the unsorted search results for words that start with the queries
+	 *
+	 * @param queries The set of queries to search for
+	 * @return the search results in no particular order
+	 */
+	private ArrayList<SearchResult> collectPartial(Set<String> queries) {
+		ArrayList<SearchResult> searchRank = new ArrayList<SearchResult>();
+		Map<String, SearchResult> lookup = new HashMap<String, SearchResult>();
+		for (String prefix : queries) {
+			for (var word : index.tailMap(prefix).entrySet()) {
+				if (word.getKey().startsWith(prefix)) {
+					searchHelper(word.getValue(), lookup, searchRank);
+				} else {
+					break;
+				}
+			}
+		}
+		return searchRank;
+	}
+
+	/**
+	 * Returns every word with the number of locations it was found in
+	 *
+	 * @return a sorted copy of the words and their document frequencies
+	 */
+	public TreeMap<String, Integer> documentFrequencies() {
+		TreeMap<String, Integer> frequencies = new TreeMap<String, Integer>();
+		for (var word : index.entrySet()) {
+			frequencies.put(word.getKey(), word.getValue().size());
+		}
+		return frequencies;
+	}
+
 	/**
 	 * @param location The location of the word
 	 * @return Returns the word count for the file at that location
@@ -271,6 +355,18 @@ public class InvertedIndex {
 		return index.containsKey(word);
 	}
 
+	/**
+	 * Adds the words, locations and positions of a previously written index file
+	 *
+	 * @param input the path of the index file to read
+	 * @throws IOException if the file cannot be read or is not a valid index
+	 *
+	 * @see JsonReader#readInvertedIndex(Path, InvertedIndex)
+	 */
+	public void loadIndex(Path input) throws IOException {
+		JsonReader.readInvertedIndex(input, this);
+	}
+
 	/**
 	 * returns the size of the counts map
 	 *
@@ -325,6 +421,224 @@ public class InvertedIndex {
 		return index.size();
 	}
 
+	/**
+	 * Returns one page of locations and their word counts in sorted order
+	 *
+	 * @param prefix only locations that start with this are included
+	 * @param after  the last location of the previous page, or null for the first
+	 *               page
+	 * @param limit  the most locations to include
+	 * @return the locations on this page and their word counts
+	 */
+	public TreeMap<String, Integer> pageCounts(String prefix, String after, int limit) {
+		TreeMap<String, Integer> page = new TreeMap<String, Integer>();
+		for (var location : pageStart(counts, prefix, after).entrySet()) {
+			if ((page.size() >= limit) || !location.getKey().startsWith(prefix)) {
+				break;
+			}
+			page.put(location.getKey(), location.getValue());
+		}
+		return page;
+	}
+
+	/**
+	 * Returns one page of words with the number of positions at each of their
+	 * locations, in sorted order
+	 *
+	 * @param prefix only words that start with this are included
+	 * @param after  the last word of the previous page, or null for the first page
+	 * @param limit  the most words to include
+	 * @return the words on this page, each with their locations and the number of
+	 *         positions there
+	 */
+	public TreeMap<String, TreeMap<String, Integer>> pageWords(String prefix, String after, int limit) {
+		TreeMap<String, TreeMap<String, Integer>> page = new TreeMap<String, TreeMap<String, Integer>>();
+		for (var word : pageStart(index, prefix, after).entrySet()) {
+			if ((page.size() >= limit) || !word.getKey().startsWith(prefix)) {
+				break;
+			}
+			TreeMap<String, Integer> locations = new TreeMap<String, Integer>();
+			for (var location : word.getValue().entrySet()) {
+				locations.put(location.getKey(), location.getValue().size());
+			}
+			page.put(word.getKey(), locations);
+		}
+		return page;
+	}
+
+	/**
+	 * Finds where a page of keys starts
+	 *
+	 * @param <V>    the type of value in the map
+	 * @param map    the map to page through
+	 * @param prefix the prefix every key on the page starts with
+	 * @param after  the last key of the previous page, or null for the first page
+	 * @return the part of the map the page starts at
+	 */
+	private static <V> SortedMap<String, V> pageStart(TreeMap<String, V> map, String prefix, String after) {
+		if ((after != null) && (after.compareTo(prefix) >= 0)) {
+			return map.tailMap(after, false);
+		}
+		return map.tailMap(prefix);
+	}
+
+	/**
+	 * Removes every word and count of a location. Only the words given are
+	 * visited, so removing a page costs about as much as adding it did.
+	 *
+	 * @param location the location to remove
+	 * @param words    the words the location was indexed under, or null to look
+	 *                 through every word in the index
+	 */
+	public void removeLocation(String location, Collection<String> words) {
+		if (!counts.containsKey(location)) {
+			return;
+		}
+		if (words == null) {
+			var all = index.values().iterator();
+			while (all.hasNext()) {
+				var locations = all.next();
+				locations.remove(location);
+				if (locations.isEmpty()) {
+					all.remove();
+				}
+			}
+		} else {
+			for (String word : words) {
+				var locations = index.get(word);
+				if (locations != null) {
+					locations.remove(location);
+					if (locations.isEmpty()) {
+						index.remove(word);
+					}
+				}
+			}
+		}
+		counts.remove(location);
+	}
+
+	/**
+	 * Adds the words of a location in place of the words it was indexed under
+	 * before, so a page that changed does not keep any of its old words. Only
+	 * the old and the new words of the location are visited.
+	 *
+	 * @param location the location to replace
+	 * @param words    the words the location was indexed under before, or null to
+	 *                 look through every word in the index
+	 * @param other    the index of the new words, with no other location in it
+	 * @return the new words of the location, as this index keeps them
+	 */
+	public List<String> replaceLocation(String location, Collection<String> words, InvertedIndex other) {
+		removeLocation(location, words);
+		addDistinct(other);
+		String[] kept = new String[other.index.size()];
+		int i = 0;
+		for (String word : other.index.keySet()) {
+			// the key already in this index, so the caller does not keep a copy
+			kept[i++] = index.ceilingKey(word);
+		}
+		return List.of(kept);
+	}
+
+	/**
+	 * Searches many queries at once. Every distinct query word is looked up only
+	 * once no matter how many queries share it, and for partial search the words
+	 * of the index are walked once for each group of overlapping prefixes.
+	 *
+	 * @param queries the stemmed queries to search for
+	 * @param isPartial whether to use partial or exact search
+	 * @return the sorted search results of each query, in the same order as the
+	 *         queries
+	 */
+	public ArrayList<ArrayList<SearchResult>> searchBatch(List<? extends Set<String>> queries, boolean isPartial) {
+		TreeSet<String> terms = new TreeSet<String>();
+		for (Set<String> query : queries) {
+			terms.addAll(query);
+		}
+		HashMap<String, HashMap<String, Integer>> matches = isPartial ? matchPartial(terms) : matchExact(terms);
+
+		ArrayList<ArrayList<SearchResult>> results = new ArrayList<ArrayList<SearchResult>>(queries.size());
+		for (Set<String> query : queries) {
+			ArrayList<SearchResult> searchRank = new ArrayList<SearchResult>();
+			Map<String, SearchResult> lookup = new HashMap<String, SearchResult>();
+			for (String term : query) {
+				for (var location : matches.get(term).entrySet()) {
+					SearchResult result = lookup.get(location.getKey());
+					if (result == null) {
+						result = new SearchResult(location.getKey());
+						lookup.put(location.getKey(), result);
+						searchRank.add(result);
+					}
+					result.updateMatches(location.getValue());
+				}
+			}
+			Collections.sort(searchRank);
+			results.add(searchRank);
+		}
+		return results;
+	}
+
+	/**
+	 * Counts the matches at each location for words that equal each term
+	 *
+	 * @param terms the query words to count matches for
+	 * @return the number of matches at each location for each term
+	 */
+	private HashMap<String, HashMap<String, Integer>> matchExact(Set<String> terms) {
+		HashMap<String, HashMap<String, Integer>> matches = new HashMap<String, HashMap<String, Integer>>();
+		for (String term : terms) {
+			HashMap<String, Integer> locations = new HashMap<String, Integer>();
+			var found = index.get(term);
+			if (found != null) {
+				for (var location : found.entrySet()) {
+					locations.put(location.getKey(), location.getValue().size());
+				}
+			}
+			matches.put(term, locations);
+		}
+		return matches;
+	}
+
+	/**
+	 * Counts the matches at each location for words that start with each term. A
+	 * word that starts with several terms is counted for each of them, the same
+	 * as {@link #searchPartial(Set)} does.
+	 *
+	 * @param terms the query words to count matches for in sorted order
+	 * @return the number of matches at each location for each term
+	 */
+	private HashMap<String, HashMap<String, Integer>> matchPartial(TreeSet<String> terms) {
+		HashMap<String, HashMap<String, Integer>> matches = new HashMap<String, HashMap<String, Integer>>();
+		int longest = 0;
+		for (String term : terms) {
+			matches.put(term, new HashMap<String, Integer>());
+			longest = Math.max(longest, term.length());
+		}
+		String root = null;
+		for (String term : terms) {
+			// terms that start with an earlier term are covered by its walk
+			if ((root != null) && term.startsWith(root)) {
+				continue;
+			}
+			root = term;
+			for (var word : index.tailMap(root).entrySet()) {
+				String key = word.getKey();
+				if (!key.startsWith(root)) {
+					break;
+				}
+				for (int length = root.length(); length <= Math.min(key.length(), longest); length++) {
+					HashMap<String, Integer> locations = matches.get(key.substring(0, length));
+					if (locations != null) {
+						for (var location : word.getValue().entrySet()) {
+							locations.merge(location.getKey(), location.getValue().size(), Integer::sum);
+						}
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
 	/**
 	 * Gets the set of queries and the type of search and returns the correct search for that query line
 	 *
@@ -348,14 +662,7 @@ public class InvertedIndex {
 	 *
 	 */
 	public ArrayList<SearchResult> searchExact(Set<String> queries) {
-		ArrayList<SearchResult> searchRank = new ArrayList<SearchResult>();
-		Map<String, SearchResult> lookup = new HashMap<String, SearchResult>();
-		for (String prefix : queries) {
-			var locations = index.get(prefix);
-			if (locations != null) {
-				searchHelper(locations, lookup, searchRank);
-			}
-		}
+		ArrayList<SearchResult> searchRank = collectExact(queries);
 		Collections.sort(searchRank);
 		return searchRank;
 	}
@@ -384,22 +691,64 @@ public class InvertedIndex {
 	 *         index
 	 */
 	public ArrayList<SearchResult> searchPartial(Set<String> queries) {
-		ArrayList<SearchResult> searchRank = new ArrayList<SearchResult>();
-		Map<String, SearchResult> lookup = new HashMap<String, SearchResult>();
-		for (String prefix : queries) {
-			for (var word : index.tailMap(prefix).entrySet()) {
-				if (word.getKey().startsWith(prefix)) {
-					var locations = index.get(word.getKey());
-					searchHelper(locations, lookup, searchRank);
-				} else {
-					break;
-				}
-			}
-		}
+		ArrayList<SearchResult> searchRank = collectPartial(queries);
 		Collections.sort(searchRank);
 		return searchRank;
 	}
 
+	/**
+	 * Finds the search results for the queries but only keeps the best ones, so
+	 * the rest never have to be sorted
+	 *
+	 * @param queries the set of queries to search for
+	 * @param isPartial whether to use partial or exact search
+	 * @param k the number of best search results to keep
+	 * @param top the list to add the best search results to in sorted order
+	 * @return the total number of search results found, including the ones not kept
+	 */
+	public int searchTop(Set<String> queries, boolean isPartial, int k, List<SearchResult> top) {
+		ArrayList<SearchResult> found = isPartial ? collectPartial(queries) : collectExact(queries);
+		if (k <= 0) {
+			return found.size();
+		}
+		// the worst of the best k results so far is always at the head
+		PriorityQueue<SearchResult> best = new PriorityQueue<SearchResult>(Math.min(k, found.size()) + 1,
+				Collections.reverseOrder());
+		for (SearchResult result : found) {
+			if (best.size() < k) {
+				best.add(result);
+			} else if (result.compareTo(best.peek()) < 0) {
+				best.poll();
+				best.add(result);
+			}
+		}
+		SearchResult[] sorted = new SearchResult[best.size()];
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			sorted[i] = best.poll();
+		}
+		top.addAll(Arrays.asList(sorted));
+		return found.size();
+	}
+
+	/**
+	 * Splits the words of the index into alphabetical ranges of roughly equal size
+	 * and returns the first word of each range
+	 *
+	 * @param wordsPerShard the number of words to put in each range
+	 * @return the first word of each range in sorted order
+	 */
+	public ArrayList<String> shardWords(int wordsPerShard) {
+		ArrayList<String> starts = new ArrayList<String>();
+		int count = 0;
+		for (String word : index.keySet()) {
+			if ((count % wordsPerShard) == 0) {
+				starts.add(word);
+			}
+			count++;
+		}
+		return starts;
+	}
+
 	/**
 	 * returns an unmodifiable map of the counts map.
 	 *
@@ -462,13 +811,29 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Writes the index using Write inverted index in JSON writer
+	 * Writes the words from start up to but not including end as a shard of the
+	 * index JSON object
+	 *
+	 * @param start  the first word to write
+	 * @param end    the word to stop before, or null to write through the last word
+	 * @param buffer the buffer to write to
+	 * @throws IOException if json writer is unable to write the words
+	 *
+	 * @see ParallelJsonWriter
+	 */
+	public void writeIndexRange(String start, String end, Utf8Buffer buffer) throws IOException {
+		var range = (end == null) ? index.tailMap(start, true) : index.subMap(start, end);
+		JsonWriter.streamInvertedIndexEntries(range, buffer, 1);
+	}
+
+	/**
+	 * Writes the index by streaming the postings straight into a file channel
 	 *
 	 * @param output the path of the file to write to
 	 * @throws IOException if json writer is unable to write the inverted index
 	 *
 	 */
 	public void writeIndex(Path output) throws IOException {
-		JsonWriter.writeInvertedIndex(index, output);
+		JsonWriter.streamInvertedIndex(index, output);
 	}
 }
\ No newline at end of file
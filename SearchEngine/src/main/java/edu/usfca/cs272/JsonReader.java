@@ -0,0 +1,372 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Reads back the pretty JSON written by {@link JsonWriter}. The input is
+ * streamed through a fixed size byte buffer, so files of any size can be read
+ * without loading them whole.
+ */
+public class JsonReader {
+
+	/**
+	 * The number of bytes to read from the file at a time
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Rebuilds an inverted index from a file written with {@code -index}. The
+	 * word counts are rebuilt from the positions the same way they are when the
+	 * index is first built.
+	 *
+	 * @param path  the path of the index file to read
+	 * @param index the inverted index to add the words to
+	 * @throws IOException if unable to read the file or the file is not a valid
+	 *                     inverted index
+	 */
+	public static void readInvertedIndex(Path path, InvertedIndex index) throws IOException {
+		try (InputStream input = Files.newInputStream(path)) {
+			JsonReader reader = new JsonReader(input);
+			reader.readInvertedIndex(index);
+		}
+	}
+
+	/**
+	 * The bytes read from the input that have not been parsed yet
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The input to read from
+	 */
+	private final InputStream input;
+
+	/**
+	 * The number of valid bytes in the buffer
+	 */
+	private int limit;
+
+	/**
+	 * Locations already seen, so every word shares the same String for a location
+	 */
+	private final HashMap<String, String> locations;
+
+	/**
+	 * The number of bytes parsed before the start of the current buffer
+	 */
+	private long offset;
+
+	/**
+	 * The index of the next byte to parse in the buffer
+	 */
+	private int position;
+
+	/**
+	 * The positions of the current location, reused for every location
+	 */
+	private int[] positions;
+
+	/**
+	 * The bytes of the current string, reused for every string
+	 */
+	private byte[] text;
+
+	/**
+	 * Initializes a reader for the input
+	 *
+	 * @param input the input to read from
+	 */
+	private JsonReader(InputStream input) {
+		this.input = input;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.limit = 0;
+		this.position = 0;
+		this.offset = 0;
+		this.text = new byte[256];
+		this.positions = new int[1024];
+		this.locations = new HashMap<String, String>();
+	}
+
+	/**
+	 * Creates an exception describing where the input stopped making sense
+	 *
+	 * @param expected what the reader expected to find
+	 * @return the exception to throw
+	 */
+	private IOException error(String expected) {
+		return new IOException("Expected " + expected + " at byte " + (offset + position));
+	}
+
+	/**
+	 * Makes sure the next byte is available in the buffer
+	 *
+	 * @return false if the end of the input was reached
+	 * @throws IOException if unable to read from the input
+	 */
+	private boolean fill() throws IOException {
+		if (position < limit) {
+			return true;
+		}
+		offset += limit;
+		position = 0;
+		limit = Math.max(input.read(buffer), 0);
+		return limit > 0;
+	}
+
+	/**
+	 * Returns the next byte that is not whitespace without consuming it
+	 *
+	 * @return the next byte or -1 at the end of the input
+	 * @throws IOException if unable to read from the input
+	 */
+	private int peek() throws IOException {
+		while (fill()) {
+			byte b = buffer[position];
+			if ((b != ' ') && (b != '\n') && (b != '\r') && (b != '\t')) {
+				return b;
+			}
+			position++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Consumes the next byte that is not whitespace if it matches
+	 *
+	 * @param expected the byte to look for
+	 * @return true if the byte was found and consumed
+	 * @throws IOException if unable to read from the input
+	 */
+	private boolean consume(char expected) throws IOException {
+		if (peek() == expected) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Consumes the next byte that is not whitespace, which must match
+	 *
+	 * @param expected the byte that must come next
+	 * @throws IOException if unable to read from the input or the byte does not
+	 *                     match
+	 */
+	private void expect(char expected) throws IOException {
+		if (!consume(expected)) {
+			throw error("'" + expected + "'");
+		}
+	}
+
+	/**
+	 * Reads the inverted index object and adds every position to the index
+	 *
+	 * @param index the inverted index to add to
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private void readInvertedIndex(InvertedIndex index) throws IOException {
+		expect('{');
+		if (!consume('}')) {
+			do {
+				String word = readString();
+				expect(':');
+				readLocations(word, index);
+			} while (consume(','));
+			expect('}');
+		}
+		if (peek() != -1) {
+			throw error("end of file");
+		}
+	}
+
+	/**
+	 * Reads the object of locations and positions for a single word
+	 *
+	 * @param word  the word the locations belong to
+	 * @param index the inverted index to add to
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private void readLocations(String word, InvertedIndex index) throws IOException {
+		expect('{');
+		if (consume('}')) {
+			return;
+		}
+		do {
+			String location = readString();
+			String shared = locations.putIfAbsent(location, location);
+			location = (shared == null) ? location : shared;
+			expect(':');
+			int count = readPositions();
+			index.addPositions(word, location, positions, count);
+		} while (consume(','));
+		expect('}');
+	}
+
+	/**
+	 * Reads an array of positions into the reusable positions array
+	 *
+	 * @return the number of positions read
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private int readPositions() throws IOException {
+		expect('[');
+		int count = 0;
+		if (consume(']')) {
+			return count;
+		}
+		do {
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, count * 2);
+			}
+			positions[count++] = readInt();
+		} while (consume(','));
+		expect(']');
+		return count;
+	}
+
+	/**
+	 * Reads a whole number directly from the bytes
+	 *
+	 * @return the number read
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private int readInt() throws IOException {
+		boolean negative = consume('-');
+		if (!fill() || (buffer[position] < '0') || (buffer[position] > '9')) {
+			throw error("a digit");
+		}
+		long number = 0;
+		while (fill() && (buffer[position] >= '0') && (buffer[position] <= '9')) {
+			number = (number * 10) + (buffer[position++] - '0');
+			if (number > ((long) Integer.MAX_VALUE + 1)) {
+				throw error("a number that fits in an int");
+			}
+		}
+		number = negative ? -number : number;
+		if (number > Integer.MAX_VALUE) {
+			throw error("a number that fits in an int");
+		}
+		return (int) number;
+	}
+
+	/**
+	 * Reads a quoted string, decoding the common escape sequences. An escaped
+	 * surrogate pair is decoded as the one character it stands for.
+	 *
+	 * @return the string read
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private String readString() throws IOException {
+		expect('"');
+		int length = 0;
+		// a high surrogate waiting for the low surrogate escaped right after it
+		char high = 0;
+		while (true) {
+			if (!fill()) {
+				throw error("'\"'");
+			}
+			byte b = buffer[position++];
+			if (high != 0) {
+				boolean pair = (b == '\\') && fill() && (buffer[position] == 'u');
+				if (!pair) {
+					length = append(length, String.valueOf(high));
+					high = 0;
+				}
+			}
+			if (b == '"') {
+				break;
+			}
+			if (b == '\\') {
+				if (!fill()) {
+					throw error("an escape sequence");
+				}
+				b = buffer[position++];
+				switch (b) {
+					case 'n' -> b = '\n';
+					case 't' -> b = '\t';
+					case 'r' -> b = '\r';
+					case 'b' -> b = '\b';
+					case 'f' -> b = '\f';
+					case 'u' -> {
+						char c = (char) readHex();
+						if ((high != 0) && Character.isLowSurrogate(c)) {
+							length = append(length, new String(new char[] { high, c }));
+							high = 0;
+						} else {
+							if (high != 0) {
+								length = append(length, String.valueOf(high));
+							}
+							high = Character.isHighSurrogate(c) ? c : 0;
+							if (high == 0) {
+								length = append(length, String.valueOf(c));
+							}
+						}
+						continue;
+					}
+					default -> {
+						// quotes, slashes and backslashes stand for themselves
+					}
+				}
+			}
+			length = append(length, b);
+		}
+		return new String(text, 0, length, UTF_8);
+	}
+
+	/**
+	 * Adds the UTF-8 bytes of decoded text to the reusable text array
+	 *
+	 * @param length  the number of bytes already in the array
+	 * @param decoded the text to add
+	 * @return the new number of bytes in the array
+	 */
+	private int append(int length, String decoded) {
+		for (byte e : decoded.getBytes(UTF_8)) {
+			length = append(length, e);
+		}
+		return length;
+	}
+
+	/**
+	 * Adds a byte to the reusable text array, growing it if needed
+	 *
+	 * @param length the number of bytes already in the array
+	 * @param b      the byte to add
+	 * @return the new number of bytes in the array
+	 */
+	private int append(int length, byte b) {
+		if (length == text.length) {
+			text = Arrays.copyOf(text, length * 2);
+		}
+		text[length] = b;
+		return length + 1;
+	}
+
+	/**
+	 * Reads the four hex digits of a unicode escape sequence
+	 *
+	 * @return the character code
+	 * @throws IOException if unable to read or parse the input
+	 */
+	private int readHex() throws IOException {
+		int code = 0;
+		for (int i = 0; i < 4; i++) {
+			if (!fill()) {
+				throw error("a hex digit");
+			}
+			int digit = Character.digit(buffer[position++], 16);
+			if (digit < 0) {
+				throw error("a hex digit");
+			}
+			code = (code << 4) | digit;
+		}
+		return code;
+	}
+}
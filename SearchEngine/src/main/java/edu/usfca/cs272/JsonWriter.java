@@ -6,9 +6,11 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -23,6 +25,264 @@ import edu.usfca.cs272.InvertedIndex.SearchResult;
  * @version Fall 2023
  */
 public class JsonWriter {
+	/**
+	 * Writes the positions as a pretty JSON array into the buffer. Produces the
+	 * same output as {@link #writeArray(Collection, Writer, int)}.
+	 *
+	 * @param elements the positions to write
+	 * @param buffer   the buffer to use
+	 * @param indent   the initial indent level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamArray(Collection<Integer> elements, Utf8Buffer buffer, int indent) throws IOException {
+		buffer.write('[');
+		if (!elements.isEmpty()) {
+			indent++;
+			boolean first = true;
+			for (int element : elements) {
+				if (!first) {
+					buffer.write(',');
+				}
+				first = false;
+				buffer.write('\n');
+				writeIndent(buffer, indent);
+				buffer.writeInt(element);
+			}
+			indent--;
+		}
+		buffer.write('\n');
+		writeIndent(buffer, indent);
+		buffer.write(']');
+	}
+
+	/**
+	 * Writes the inverted index to file through a {@link FileChannel}. Produces the
+	 * same bytes as {@link #writeInvertedIndex(Map, Path)} without creating a
+	 * String for every key and position.
+	 *
+	 * @param index the inverted index to write
+	 * @param path  path of the file to write to
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see Utf8Buffer
+	 */
+	public static void streamInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> index,
+			Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Utf8Buffer buffer = new Utf8Buffer(channel, Utf8Buffer.DEFAULT_CAPACITY);
+			streamInvertedIndex(index, buffer, 0);
+			buffer.flush();
+		}
+	}
+
+	/**
+	 * Writes the inverted index into the buffer. Produces the same output as
+	 * {@link #writeInvertedIndex(Map, Writer, int)}.
+	 *
+	 * @param index  the inverted index to write
+	 * @param buffer the buffer to use
+	 * @param indent the initial indent level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> index,
+			Utf8Buffer buffer, int indent) throws IOException {
+		buffer.write('{');
+		if (!index.isEmpty()) {
+			indent++;
+			boolean first = true;
+			for (var entry : index.entrySet()) {
+				if (!first) {
+					buffer.write(',');
+				}
+				first = false;
+				streamNestedObject(entry, buffer, indent);
+			}
+			indent--;
+		}
+		buffer.write('\n');
+		buffer.write('}');
+	}
+
+	/**
+	 * Writes the words of an inverted index as a shard of a larger JSON object.
+	 * Every word is written with a leading comma.
+	 *
+	 * @param index  the words, locations and positions to write
+	 * @param buffer the buffer to use
+	 * @param indent the indent level of the words
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see ParallelJsonWriter
+	 */
+	public static void streamInvertedIndexEntries(
+			Map<String, ? extends Map<String, ? extends Collection<Integer>>> index, Utf8Buffer buffer, int indent)
+			throws IOException {
+		for (var entry : index.entrySet()) {
+			buffer.write(',');
+			streamNestedObject(entry, buffer, indent);
+		}
+	}
+
+	/**
+	 * Writes a single word of the inverted index with its locations and positions
+	 *
+	 * @param entry  the word and its locations
+	 * @param buffer the buffer to use
+	 * @param indent the indent level of the word
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamNestedObject(Entry<String, ? extends Map<String, ? extends Collection<Integer>>> entry,
+			Utf8Buffer buffer, int indent) throws IOException {
+		buffer.write('\n');
+		writeQuote(entry.getKey(), buffer, indent);
+		buffer.write(':');
+		buffer.write(' ');
+		streamObjectArrays(entry.getValue(), buffer, indent);
+	}
+
+	/**
+	 * Writes the locations and positions as a pretty JSON object into the buffer.
+	 * Produces the same output as {@link #writeObjectArrays(Map, Writer, int)}.
+	 *
+	 * @param elements the locations and positions to write
+	 * @param buffer   the buffer to use
+	 * @param indent   the initial indent level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamObjectArrays(Map<String, ? extends Collection<Integer>> elements, Utf8Buffer buffer,
+			int indent) throws IOException {
+		buffer.write('{');
+		if (!elements.isEmpty()) {
+			indent++;
+			boolean first = true;
+			for (var entry : elements.entrySet()) {
+				if (!first) {
+					buffer.write(',');
+				}
+				first = false;
+				buffer.write('\n');
+				writeQuote(entry.getKey(), buffer, indent);
+				buffer.write(':');
+				buffer.write(' ');
+				streamArray(entry.getValue(), buffer, indent);
+			}
+			indent--;
+		}
+		buffer.write('\n');
+		writeIndent(buffer, indent);
+		buffer.write('}');
+	}
+
+	/**
+	 * Writes the search results of each query as a shard of a larger JSON object.
+	 * Every query is written with a leading comma.
+	 *
+	 * @param rank   the queries and their search results to write
+	 * @param buffer the buffer to use
+	 * @param indent the indent level of the queries
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see ParallelJsonWriter
+	 */
+	public static void streamSearchResultEntries(
+			Collection<? extends Entry<String, ? extends Collection<SearchResult>>> rank, Utf8Buffer buffer, int indent)
+			throws IOException {
+		for (var entry : rank) {
+			buffer.write(',');
+			streamSearchResultCollection(entry, buffer, indent);
+		}
+	}
+
+	/**
+	 * Writes the search results of a single query into the buffer. Produces the
+	 * same output as {@link #writeSearchResultCollection(Writer, int, Iterator)}.
+	 *
+	 * @param entry  the query and its search results
+	 * @param buffer the buffer to use
+	 * @param indent the indent level of the query
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamSearchResultCollection(Entry<String, ? extends Collection<SearchResult>> entry,
+			Utf8Buffer buffer, int indent) throws IOException {
+		buffer.write('\n');
+		writeQuote(entry.getKey(), buffer, indent);
+		buffer.write(": [");
+		indent++;
+		boolean first = true;
+		for (SearchResult result : entry.getValue()) {
+			if (!first) {
+				buffer.write(',');
+			}
+			first = false;
+			streamSingleSearchResult(result, buffer, indent);
+		}
+		indent--;
+		buffer.write('\n');
+		writeIndent(buffer, indent);
+		buffer.write(']');
+	}
+
+	/**
+	 * Writes the search results of every query to file through a
+	 * {@link FileChannel}. Produces the same bytes as
+	 * {@link #writeSearchResult(Map, Path)}.
+	 *
+	 * @param rank the queries and their search results to write
+	 * @param path the path of the file to write to
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamSearchResult(Map<String, ? extends Collection<SearchResult>> rank, Path path)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Utf8Buffer buffer = new Utf8Buffer(channel, Utf8Buffer.DEFAULT_CAPACITY);
+			buffer.write('{');
+			boolean first = true;
+			for (var entry : rank.entrySet()) {
+				if (!first) {
+					buffer.write(',');
+				}
+				first = false;
+				streamSearchResultCollection(entry, buffer, 1);
+			}
+			buffer.write('\n');
+			buffer.write('}');
+			buffer.flush();
+		}
+	}
+
+	/**
+	 * Writes a single search result into the buffer. Produces the same output as
+	 * {@link #writeSingleSearchResult(Writer, int, Iterator)}.
+	 *
+	 * @param result the search result to write
+	 * @param buffer the buffer to use
+	 * @param indent the indent level of the search result
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void streamSingleSearchResult(SearchResult result, Utf8Buffer buffer, int indent)
+			throws IOException {
+		buffer.write('\n');
+		writeIndent(buffer, indent);
+		buffer.write('{');
+		buffer.write('\n');
+		writeQuote("count", buffer, indent + 1);
+		buffer.write(": ");
+		buffer.writeInt(result.getNumMatches());
+		buffer.write(",\n");
+		writeQuote("score", buffer, indent + 1);
+		buffer.write(": ");
+		buffer.writeFixed(result.getScore());
+		buffer.write(",\n");
+		writeQuote("where", buffer, indent + 1);
+		buffer.write(": ");
+		writeQuote(result.getLocationOfFile(), buffer, 0);
+		buffer.write('\n');
+		writeIndent(buffer, indent);
+		buffer.write('}');
+	}
+
 	/**
 	 * Returns the elements as a pretty JSON array.
 	 *
@@ -237,6 +497,21 @@ public class JsonWriter {
 		}
 	}
 
+	/**
+	 * Writes two spaces per level of indentation into the buffer. Does nothing if
+	 * the indentation level is 0 or less.
+	 *
+	 * @param buffer the buffer to use
+	 * @param indent the number of times to indent
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void writeIndent(Utf8Buffer buffer, int indent) throws IOException {
+		while (indent-- > 0) {
+			buffer.write(' ');
+			buffer.write(' ');
+		}
+	}
+
 	/**
 	 * Writes the inverted index, which includes a map of all words found in files
 	 * given, how many times that word occured, and its location in the file.
@@ -478,6 +753,40 @@ public class JsonWriter {
 		writer.write("}");
 	}
 
+	/**
+	 * Writes the text surrounded by quotation marks into the buffer, escaping
+	 * quotation marks, backslashes and control characters so the result is always
+	 * valid JSON
+	 *
+	 * @param text   the text to write
+	 * @param buffer the buffer to use
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void writeEscaped(String text, Utf8Buffer buffer) throws IOException {
+		buffer.write('"');
+		int from = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c == '"') || (c == '\\') || (c < 0x20)) {
+				buffer.write(text.substring(from, i));
+				buffer.write('\\');
+				switch (c) {
+					case '"', '\\' -> buffer.write(c);
+					case '\n' -> buffer.write('n');
+					case '\r' -> buffer.write('r');
+					case '\t' -> buffer.write('t');
+					default -> {
+						buffer.write('u');
+						buffer.write(String.format("%04x", (int) c));
+					}
+				}
+				from = i + 1;
+			}
+		}
+		buffer.write(from == 0 ? text : text.substring(from));
+		buffer.write('"');
+	}
+
 	/**
 	 * Indents and then writes the text element surrounded by {@code " "} quotation
 	 * marks.
@@ -494,6 +803,22 @@ public class JsonWriter {
 		writer.write('"');
 	}
 
+	/**
+	 * Indents and then writes the text element into the buffer, escaped so that
+	 * {@link JsonReader} reads back the same text
+	 *
+	 * @param element the element to write
+	 * @param buffer  the buffer to use
+	 * @param indent  the number of times to indent
+	 * @throws IOException if an IO error occurs
+	 *
+	 * @see #writeEscaped(String, Utf8Buffer)
+	 */
+	public static void writeQuote(String element, Utf8Buffer buffer, int indent) throws IOException {
+		writeIndent(buffer, indent);
+		writeEscaped(element, buffer);
+	}
+
 	/**
 	 *  Helps write the search result and returns a StringWriter
 	 *
@@ -596,8 +921,7 @@ public class JsonWriter {
 		writer.write(": " + toWrite.getNumMatches() + ",");
 		writer.write("\n");
 		writeQuote("score", writer, indent);
-		String formatted = String.format("%.8f", toWrite.getScore());
-		writer.write(": " + formatted + ",");
+		writer.write(": " + toWrite.getFormattedScore() + ",");
 		writer.write("\n");
 		writeQuote("where", writer, indent);
 		writer.write(": ");
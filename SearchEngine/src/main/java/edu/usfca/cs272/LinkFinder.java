@@ -17,6 +17,75 @@ import java.util.regex.Pattern;
  * @version Fall 2023
  */
 public class LinkFinder {
+	/**
+	 * A base URL prepared once per page, so every link on the page can be
+	 * resolved against it without cleaning the base again
+	 */
+	public static class Base {
+
+		/**
+		 * The directory of the base, ending in a slash, that relative paths are
+		 * added to
+		 */
+		private final String directory;
+
+		/**
+		 * The scheme and authority of the base, ending in a slash, that absolute
+		 * paths are added to
+		 */
+		private final String root;
+
+		/**
+		 * The cleaned base, or null if it is not a valid URI
+		 */
+		private final URI uri;
+
+		/**
+		 * Prepares the base URL.
+		 *
+		 * @param base the base URL links are found on
+		 */
+		public Base(URL base) {
+			URI clean;
+			try {
+				clean = cleanUri(base.toURI());
+			} catch (URISyntaxException e) {
+				clean = null;
+			}
+			this.uri = clean;
+			this.root = clean == null || clean.isOpaque() ? null : clean.resolve(ROOT).toString();
+			this.directory = clean == null || clean.isOpaque() ? null : clean.resolve(DIRECTORY).toString();
+		}
+	}
+
+	/**
+	 * The relative link to the directory of a page
+	 */
+	private static final URI DIRECTORY = URI.create(".");
+
+	/**
+	 * Finds the double quoted href of every anchor tag
+	 */
+	private static final Pattern HREF = Pattern.compile("(?is)<a\\s+[^>]*?href\\s*=\\s*\"([^\"]+)\"");
+
+	/**
+	 * The characters that {@link URI} accepts and leaves alone in a path or
+	 * query without escaping
+	 */
+	private static final boolean[] PLAIN = new boolean[128];
+
+	static {
+		String plain = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_.!~*'();:@&=+$,/?";
+		for (int i = 0; i < plain.length(); i++) {
+			PLAIN[plain.charAt(i)] = true;
+		}
+	}
+
+	/**
+	 * The relative link to the root of a site
+	 */
+	private static final URI ROOT = URI.create("/");
+
 	/**
 	 * Attempts to remove the fragment component (if present) from a URI and then
 	 * return the normalized URI. Also ensures that a hierarchical URI has the
@@ -32,7 +101,7 @@ public class LinkFinder {
 		URI clean = null;
 
 		String fragment = normal.getFragment();
-		String path = normal.normalize().getPath();
+		String path = normal.getPath();
 
 		try {
 			if (!normal.isOpaque() && ((path == null) || path.isBlank())) {
@@ -56,20 +125,39 @@ public class LinkFinder {
 	 * @return the normalized absolute URL or {@code null}
 	 */
 	public static URL convertUrl(URL base, String href) {
-		URI uri = makeUri(href);
-		URL url = null;
-		if (uri != null) {
-			try {
-				if (!uri.isOpaque() && !uri.isAbsolute()) {
-					URI parent = cleanUri(base.toURI());
-					uri = parent.resolve(uri);
+		return convertUrl(new Base(base), href);
+	}
+
+	/**
+	 * Attempts to create a normalized absolute URL from the prepared base URL and
+	 * link text, like {@link #convertUrl(URL, String)}. Plain absolute links and
+	 * plain paths are added to the base as text, which gives the same URL as
+	 * resolving and normalizing them would.
+	 *
+	 * @param base the prepared base URL the link text was found on
+	 * @param href the link text (usually from an anchor tag href attribute)
+	 * @return the normalized absolute URL or {@code null}
+	 */
+	public static URL convertUrl(Base base, String href) {
+		try {
+			String plain = plainUrl(base, href);
+			if (plain != null) {
+				return new URL(plain);
+			}
+			URI uri = makeUri(href);
+			if (uri == null) {
+				return null;
+			}
+			if (!uri.isOpaque() && !uri.isAbsolute()) {
+				if (base.uri == null) {
+					return null;
 				}
-				url = cleanUri(uri).toURL();
-			} catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
-				url = null;
+				uri = base.uri.resolve(uri);
 			}
+			return cleanUri(uri).toURL();
+		} catch (MalformedURLException | IllegalArgumentException e) {
+			return null;
 		}
-		return url;
 	}
 
 	/**
@@ -93,16 +181,15 @@ public class LinkFinder {
 	 * @see #isHttp(URL)
 	 */
 	public static void findLinks(URL base, String html, Collection<URL> links) {
-		Pattern pattern = Pattern.compile("(?s)(?i)(<a\\s+[^>]*?href\\s*=\\s*)(\\\"[^\\\"]+\\\")");
-		Matcher matcher = pattern.matcher(html);
+		Base prepared = new Base(base);
+		Matcher matcher = HREF.matcher(html);
 		while (matcher.find()) {
-			for (int i = 2; i <= (matcher.groupCount()); i++) { // TODO Shouldn't need to loop?
-				if (!matcher.group(i).contains("<a")) { // TODO Another linear search
-					String link = matcher.group(i).replaceAll("\"", ""); // TODO Unnecessary string operations
-					URL newUrl = convertUrl(base, link);
-					if ((newUrl != null) && isHttp(newUrl)) {
-						links.add(newUrl);
-					}
+			// the quoted link may run past its own tag into the next anchor
+			int anchor = html.indexOf("<a", matcher.start(1));
+			if ((anchor < 0) || (anchor >= matcher.end(1))) {
+				URL url = convertUrl(prepared, matcher.group(1));
+				if (isHttp(url)) {
+					links.add(url);
 				}
 			}
 		}
@@ -115,7 +202,117 @@ public class LinkFinder {
 	 * @return true if the URL uses the HTTP or HTTPS protocol
 	 */
 	public static boolean isHttp(URL url) {
-		return (url != null) && url.getProtocol().matches("(?i)https?");
+		if (url == null) {
+			return false;
+		}
+		String protocol = url.getProtocol();
+		return protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https");
+	}
+
+	/**
+	 * Returns {@code true} if the text has no characters {@link URI} would reject
+	 * in any part of a link, so parsing it might succeed
+	 *
+	 * @param link the link text
+	 * @return {@code false} if parsing the link as a URI is sure to fail
+	 */
+	private static boolean isParsable(String link) {
+		for (int i = 0; i < link.length(); i++) {
+			char c = link.charAt(i);
+			if (c < 0x80 ? (c <= ' ') || (c == 0x7F) || ("\"<>\\^`{|}".indexOf(c) >= 0)
+					: Character.isISOControl(c) || Character.isSpaceChar(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns {@code true} if the text is a plain path with an optional query:
+	 * only characters {@link URI} leaves alone, and no empty, "." or ".."
+	 * segments apart from an empty last one, so normalizing it changes nothing
+	 *
+	 * @param text  the text to check
+	 * @param start the index the path starts at
+	 * @return {@code true} if the path is plain
+	 */
+	private static boolean isPlainPath(String text, int start) {
+		for (int i = start; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c >= 0x80) || !PLAIN[c]) {
+				return false;
+			}
+		}
+		int end = text.indexOf('?', start);
+		end = end < 0 ? text.length() : end;
+		if (end == start) {
+			return false;
+		}
+		int segment = text.charAt(start) == '/' ? start + 1 : start;
+		for (int i = segment; i <= end; i++) {
+			if ((i == end) || (text.charAt(i) == '/')) {
+				if (!isPlainSegment(text, segment, i) && ((i < end) || (i > segment))) {
+					return false;
+				}
+				segment = i + 1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the absolute link as text if it can be built without parsing the
+	 * link: an http(s) link with a plain host and path, or a plain path relative
+	 * to the base. Returns null if the link has to be parsed and resolved.
+	 *
+	 * @param base the prepared base URL
+	 * @param href the link text
+	 * @return the absolute link or {@code null}
+	 */
+	private static String plainUrl(Base base, String href) {
+		int scheme = href.regionMatches(true, 0, "http://", 0, 7) ? 7
+				: href.regionMatches(true, 0, "https://", 0, 8) ? 8 : 0;
+		if (scheme > 0) {
+			int path = href.indexOf('/', scheme);
+			if (path <= scheme) {
+				return null;
+			}
+			for (int i = scheme; i < path; i++) {
+				char c = href.charAt(i);
+				if (!(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9'))
+						|| (c == '.') || (c == '-') || (c == ':'))) {
+					return null;
+				}
+			}
+			return isPlainPath(href, path) ? href : null;
+		}
+		if ((base.root == null) || href.isEmpty()) {
+			return null;
+		}
+		if (href.charAt(0) == '/') {
+			return isPlainPath(href, 0) ? base.root + href.substring(1) : null;
+		}
+		// a colon before the first slash would make the start a scheme
+		int colon = href.indexOf(':');
+		int slash = href.indexOf('/');
+		if ((colon >= 0) && ((slash < 0) || (colon < slash))) {
+			return null;
+		}
+		return isPlainPath(href, 0) ? base.directory + href : null;
+	}
+
+	/**
+	 * Returns {@code true} if the path segment is not empty, "." or ".."
+	 *
+	 * @param text  the text the segment is in
+	 * @param start the index of the start of the segment
+	 * @param end   the index after the end of the segment
+	 * @return {@code true} if the segment is left alone by normalizing
+	 */
+	private static boolean isPlainSegment(String text, int start, int end) {
+		int length = end - start;
+		return (length > 2) || ((length == 2) && !text.startsWith("..", start))
+				|| ((length == 1) && (text.charAt(start) != '.'));
 	}
 
 	/**
@@ -145,15 +342,19 @@ public class LinkFinder {
 	 */
 	public static URI makeUri(String link) {
 		try {
-			return new URI(link);
-		} catch (URISyntaxException e) {
-			int hash = link.lastIndexOf("#"); // find fragment
-			link = hash > 0 ? link.substring(0, hash) : link; // remove fragment
-			try {
-				return new URI(null, link, null); //convert as relative
-			} catch (URISyntaxException f) {
-				return null;
+			// skips the exception for links that are sure to fail
+			if (isParsable(link)) {
+				return new URI(link);
 			}
+		} catch (URISyntaxException e) {
+			// parsed as a relative link instead
+		}
+		int hash = link.lastIndexOf("#"); // find fragment
+		link = hash > 0 ? link.substring(0, hash) : link; // remove fragment
+		try {
+			return new URI(null, link, null); //convert as relative
+		} catch (URISyntaxException f) {
+			return null;
 		}
 	}
 
@@ -1,21 +1,128 @@
 package edu.usfca.cs272;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
 
 import edu.usfca.cs272.InvertedIndex.SearchResult;
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * A multi threaded version of query processor
  */
 public class MultiThreadedQueryProcessor implements QueryProcessorInterface {
 
+	/**
+	 * The task that searches a sorted range of stemmed queries together
+	 */
+	private class SearchTask implements Runnable {
+
+		/**
+		 * Counted down once the queries are searched or the search has failed
+		 */
+		private final CountDownLatch done;
+
+		/**
+		 * The joined queries and their stems to search
+		 */
+		private final List<Entry<String, TreeSet<String>>> queries;
+
+		/**
+		 * Initializes this task.
+		 * @param queries The joined queries and their stems to search
+		 * @param done Counted down once the queries are searched or the search has failed
+		 */
+		public SearchTask(List<Entry<String, TreeSet<String>>> queries, CountDownLatch done) {
+			this.queries = queries;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ArrayList<TreeSet<String>> stems = new ArrayList<TreeSet<String>>(queries.size());
+				for (var query : queries) {
+					stems.add(query.getValue());
+				}
+				var results = index.searchBatch(stems, isPartialSearch);
+				synchronized (searchRank) {
+					for (int i = 0; i < queries.size(); i++) {
+						searchRank.put(queries.get(i).getKey(), results.get(i));
+					}
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * The task that stems a range of query lines before they are searched
+	 */
+	private class StemTask implements Runnable {
+
+		/**
+		 * Counted down once the lines are stemmed or stemming has failed
+		 */
+		private final CountDownLatch done;
+
+		/**
+		 * The lines to stem
+		 */
+		private final List<String> lines;
+
+		/**
+		 * The queries found so far by joined stems, shared by every stem task
+		 */
+		private final TreeMap<String, TreeSet<String>> pending;
+
+		/**
+		 * Initializes this task.
+		 * @param lines The lines to stem
+		 * @param pending The queries found so far, shared by every stem task
+		 * @param done Counted down once the lines are stemmed or stemming has failed
+		 */
+		public StemTask(List<String> lines, TreeMap<String, TreeSet<String>> pending, CountDownLatch done) {
+			this.lines = lines;
+			this.pending = pending;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Stemmer stemmer = new SnowballStemmer(ENGLISH);
+				TreeMap<String, TreeSet<String>> local = new TreeMap<String, TreeSet<String>>();
+				for (String line : lines) {
+					TreeSet<String> uniqueStems = FileStemmer.uniqueStems(line, stemmer);
+					if (!uniqueStems.isEmpty()) {
+						local.put(String.join(" ", uniqueStems), uniqueStems);
+					}
+				}
+				synchronized (pending) {
+					pending.putAll(local);
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
 	/**
 	 * THe task that builds the query processor while multithreading it
 	 */
@@ -50,6 +157,18 @@ public class MultiThreadedQueryProcessor implements QueryProcessorInterface {
 		}
 	}
 
+	/**
+	 * The number of queries each worker stems or searches at a time when
+	 * building from a file
+	 */
+	private static final int BATCH_QUERIES = 1024;
+
+	/**
+	 * The number of queries each worker serializes at a time when writing the
+	 * search results
+	 */
+	private static final int SHARD_QUERIES = 256;
+
 	/**
 	 * The index to use and look through for the Search Rank
 	 */
@@ -84,10 +203,71 @@ public class MultiThreadedQueryProcessor implements QueryProcessorInterface {
 		searchRank = new TreeMap<String, ArrayList<SearchResult>>();
 	}
 
+	/**
+	 * Waits until every task counted by the latch is done
+	 *
+	 * @param done the latch the tasks count down
+	 * @param path the path of the queries, used in the error message
+	 * @throws IOException if interrupted while waiting
+	 */
+	private static void await(CountDownLatch done, Path path) throws IOException {
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching the queries in " + path, e);
+		}
+	}
+
+	/**
+	 * Stems every query line in parallel, then searches the distinct queries in
+	 * sorted ranges so that each worker looks up the words its queries share only
+	 * once. Only waits for its own tasks, so other work on the shared queue does
+	 * not hold it up.
+	 *
+	 * @param path The path at which to read the queries at
+	 * @throws IOException if the file cannot be read / does not exist
+	 *
+	 * @see InvertedIndex#searchBatch(List, boolean)
+	 */
 	@Override
 	public void buildQuery(Path path) throws IOException {
-		QueryProcessorInterface.super.buildQuery(path);
-		workers.finish();
+		ArrayList<List<String>> batches = new ArrayList<List<String>>();
+		try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+			ArrayList<String> lines = new ArrayList<String>(BATCH_QUERIES);
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+				if (lines.size() == BATCH_QUERIES) {
+					batches.add(lines);
+					lines = new ArrayList<String>(BATCH_QUERIES);
+				}
+			}
+			if (!lines.isEmpty()) {
+				batches.add(lines);
+			}
+		}
+
+		TreeMap<String, TreeSet<String>> pending = new TreeMap<String, TreeSet<String>>();
+		CountDownLatch stemmed = new CountDownLatch(batches.size());
+		for (List<String> lines : batches) {
+			workers.execute(new StemTask(lines, pending, stemmed));
+		}
+		await(stemmed, path);
+
+		ArrayList<Entry<String, TreeSet<String>>> queries = new ArrayList<Entry<String, TreeSet<String>>>();
+		synchronized (searchRank) {
+			for (var query : pending.entrySet()) {
+				if (!searchRank.containsKey(query.getKey())) {
+					queries.add(query);
+				}
+			}
+		}
+		CountDownLatch searched = new CountDownLatch((queries.size() + BATCH_QUERIES - 1) / BATCH_QUERIES);
+		for (int start = 0; start < queries.size(); start += BATCH_QUERIES) {
+			workers.execute(new SearchTask(queries.subList(start, Math.min(start + BATCH_QUERIES, queries.size())), searched));
+		}
+		await(searched, path);
 	}
 
 	@Override
@@ -157,10 +337,39 @@ public class MultiThreadedQueryProcessor implements QueryProcessorInterface {
 		}
 	}
 
+	@Override
+	public void writeBinarySearchRank(Path output) throws IOException {
+		TreeMap<String, ArrayList<SearchResult>> snapshot;
+		synchronized (searchRank) {
+			snapshot = new TreeMap<String, ArrayList<SearchResult>>(searchRank);
+		}
+		BinaryWriter.writeSearchResult(snapshot, output);
+	}
+
+	/**
+	 * Writes the search results by serializing ranges of queries in parallel and
+	 * joining them in order. The results are only locked long enough to take a
+	 * snapshot of the queries.
+	 *
+	 * @param output The output to write the search rank to
+	 * @throws IOException if IO Exception occurs
+	 *
+	 * @see ParallelJsonWriter
+	 */
 	@Override
 	public void writeSearchRank(Path output) throws IOException {
+		ArrayList<Entry<String, ArrayList<SearchResult>>> snapshot;
 		synchronized (searchRank) {
-			JsonWriter.writeSearchResult(searchRank, output);
+			snapshot = new ArrayList<Entry<String, ArrayList<SearchResult>>>(searchRank.size());
+			for (var entry : searchRank.entrySet()) {
+				snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+			}
+		}
+		ArrayList<ParallelJsonWriter.Shard> shards = new ArrayList<ParallelJsonWriter.Shard>();
+		for (int start = 0; start < snapshot.size(); start += SHARD_QUERIES) {
+			var range = snapshot.subList(start, Math.min(start + SHARD_QUERIES, snapshot.size()));
+			shards.add(buffer -> JsonWriter.streamSearchResultEntries(range, buffer, 1));
 		}
+		ParallelJsonWriter.writeObject(shards, workers, output);
 	}
 }
\ No newline at end of file
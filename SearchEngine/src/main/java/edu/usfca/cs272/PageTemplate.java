@@ -0,0 +1,96 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An HTML page split once into its static parts, encoded as UTF-8 ahead of
+ * time, and the slots between them that are filled in for each request. Slots
+ * are marked the same way as in a format string, such as {@code %2$s}. Slots
+ * numbered up to the number of constants are filled in when the template is
+ * created, the rest are filled by fragments in the order they appear.
+ */
+public class PageTemplate {
+
+	/**
+	 * Writes the dynamic part of a page for one slot
+	 */
+	@FunctionalInterface
+	public interface Fragment {
+		/**
+		 * Writes this fragment
+		 *
+		 * @param out the buffer to write to
+		 * @throws IOException if unable to write
+		 */
+		public void write(Utf8Buffer out) throws IOException;
+	}
+
+	/**
+	 * Matches a numbered slot such as %1$s
+	 */
+	private static final Pattern SLOT = Pattern.compile("%(\\d+)\\$s");
+
+	/**
+	 * The static parts of the page, one more than the number of dynamic slots
+	 */
+	private final byte[][] chunks;
+
+	/**
+	 * Splits the template into static chunks
+	 *
+	 * @param template  the page with numbered slots
+	 * @param constants the values of the first slots, which never change
+	 */
+	public PageTemplate(String template, String... constants) {
+		ArrayList<byte[]> parts = new ArrayList<byte[]>();
+		StringBuilder part = new StringBuilder();
+		Matcher matcher = SLOT.matcher(template);
+		int last = 0;
+		while (matcher.find()) {
+			part.append(template, last, matcher.start());
+			int slot = Integer.parseInt(matcher.group(1));
+			if (slot <= constants.length) {
+				part.append(constants[slot - 1]);
+			} else {
+				parts.add(part.toString().getBytes(UTF_8));
+				part.setLength(0);
+			}
+			last = matcher.end();
+		}
+		part.append(template, last, template.length());
+		parts.add(part.toString().getBytes(UTF_8));
+		this.chunks = parts.toArray(new byte[0][]);
+	}
+
+	/**
+	 * @return the number of fragments needed to render this page
+	 */
+	public int numSlots() {
+		return chunks.length - 1;
+	}
+
+	/**
+	 * Writes the page with each fragment in its slot
+	 *
+	 * @param out       the buffer to write to
+	 * @param fragments the dynamic parts of the page in the order their slots
+	 *                  appear
+	 * @throws IOException if unable to write
+	 */
+	public void render(Utf8Buffer out, Fragment... fragments) throws IOException {
+		if (fragments.length != numSlots()) {
+			throw new IllegalArgumentException(
+					"Expected " + numSlots() + " fragments but got " + fragments.length);
+		}
+		out.write(chunks[0]);
+		for (int i = 0; i < fragments.length; i++) {
+			fragments[i].write(out);
+			out.write(chunks[i + 1]);
+		}
+	}
+}
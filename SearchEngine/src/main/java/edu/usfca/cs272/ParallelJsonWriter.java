@@ -0,0 +1,150 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes a pretty JSON object whose entries are split into ordered shards. The
+ * shards are serialized in parallel into separate buffers on a work queue and
+ * then copied into the output file in order, so the result is identical to
+ * writing every entry on one thread. Only the shards of this writer are waited
+ * for, so other work on the same queue does not hold it up, and if any shard
+ * fails the first failure is thrown instead of writing the rest.
+ */
+public class ParallelJsonWriter {
+
+	/**
+	 * A range of entries in a JSON object that can be written on its own. Every
+	 * entry written by a shard must start with a comma and a new line, the
+	 * writer removes the comma before the very first entry.
+	 */
+	@FunctionalInterface
+	public static interface Shard {
+		/**
+		 * Writes the entries in this shard
+		 *
+		 * @param buffer the buffer to write to
+		 * @throws IOException if an IO error occurs
+		 */
+		public void write(Utf8Buffer buffer) throws IOException;
+	}
+
+	/**
+	 * The task that serializes a single shard into its own buffer
+	 */
+	private static class Task implements Runnable {
+
+		/**
+		 * The buffer to write the shard into
+		 */
+		private final Utf8Buffer buffer;
+
+		/**
+		 * Counted down once the shard is written or has failed
+		 */
+		private final CountDownLatch done;
+
+		/**
+		 * The exception thrown while writing, if any
+		 */
+		private IOException error;
+
+		/**
+		 * The shard to write
+		 */
+		private final Shard shard;
+
+		/**
+		 * Initializes this task.
+		 *
+		 * @param shard  the shard to write
+		 * @param buffer the buffer to write the shard into
+		 * @param done   counted down once the shard is written or has failed
+		 */
+		public Task(Shard shard, Utf8Buffer buffer, CountDownLatch done) {
+			this.shard = shard;
+			this.buffer = buffer;
+			this.done = done;
+			this.error = null;
+		}
+
+		@Override
+		public void run() {
+			try {
+				buffer.reset();
+				shard.write(buffer);
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = new IOException("Unable to write a shard of the JSON object", e);
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * The number of bytes to start each shard buffer with
+	 */
+	private static final int SHARD_CAPACITY = 1 << 16;
+
+	/**
+	 * Writes the shards as a single pretty JSON object to file. At most one shard
+	 * per worker is held in memory at a time, and the buffers are reused between
+	 * rounds.
+	 *
+	 * @param shards  the shards to write in order
+	 * @param workers the work queue to use
+	 * @param path    the path of the file to write to
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void writeObject(List<? extends Shard> shards, WorkQueue workers, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Utf8Buffer edge = new Utf8Buffer(channel, 16);
+			edge.write('{');
+			edge.flush();
+
+			Utf8Buffer[] buffers = new Utf8Buffer[Math.max(1, workers.size())];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = new Utf8Buffer(SHARD_CAPACITY);
+			}
+
+			boolean first = true;
+			Task[] tasks = new Task[buffers.length];
+			for (int start = 0; start < shards.size(); start += buffers.length) {
+				int end = Math.min(start + buffers.length, shards.size());
+				CountDownLatch done = new CountDownLatch(end - start);
+				for (int i = start; i < end; i++) {
+					tasks[i - start] = new Task(shards.get(i), buffers[i - start], done);
+					workers.execute(tasks[i - start]);
+				}
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while writing the shards to " + path, e);
+				}
+
+				for (int i = 0; i < (end - start); i++) {
+					if (tasks[i].error != null) {
+						throw tasks[i].error;
+					}
+					Utf8Buffer buffer = tasks[i].buffer;
+					if (buffer.size() > 0) {
+						buffer.writeTo(channel, first ? 1 : 0);
+						first = false;
+					}
+				}
+			}
+
+			edge.write('\n');
+			edge.write('}');
+			edge.flush();
+		}
+	}
+}
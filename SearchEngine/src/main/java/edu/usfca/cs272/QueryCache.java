@@ -0,0 +1,235 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import edu.usfca.cs272.InvertedIndex.SearchResult;
+
+/**
+ * A size-bounded cache of search results shared by every search request. Keys
+ * are the joined stemmed query plus the search mode. Entries are evicted in
+ * least recently used order once either the number of queries or the total
+ * number of cached results grows too large. The whole cache is dropped whenever
+ * a newer generation of the index is seen, so results never outlive a crawl
+ * that added to the index. Requests that started before the newest generation
+ * neither read nor store results.
+ */
+public class QueryCache {
+
+	/**
+	 * A cached list of search results and the index generation it came from
+	 */
+	private static class Entry {
+
+		/**
+		 * The index generation the results were computed against
+		 */
+		private final long generation;
+
+		/**
+		 * The cached search results
+		 */
+		private final List<SearchResult> results;
+
+		/**
+		 * Initializes this entry.
+		 *
+		 * @param results    the search results to cache
+		 * @param generation the index generation the results were computed against
+		 */
+		public Entry(List<SearchResult> results, long generation) {
+			this.results = results;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The default maximum number of queries to cache
+	 */
+	public static final int DEFAULT_QUERIES = 10_000;
+
+	/**
+	 * The default maximum number of search results to cache across all queries
+	 */
+	public static final int DEFAULT_RESULTS = 1_000_000;
+
+	/**
+	 * The cached entries in least recently used order
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * The index generation the current entries were computed against
+	 */
+	private long generation;
+
+	/**
+	 * The number of lookups that found results
+	 */
+	private long hits;
+
+	/**
+	 * The maximum number of queries to keep
+	 */
+	private final int maxQueries;
+
+	/**
+	 * The maximum number of search results to keep across all queries
+	 */
+	private final long maxResults;
+
+	/**
+	 * The number of lookups that did not find results
+	 */
+	private long misses;
+
+	/**
+	 * The number of search results currently cached across all queries
+	 */
+	private long size;
+
+	/**
+	 * Initializes a cache with the default limits
+	 */
+	public QueryCache() {
+		this(DEFAULT_QUERIES, DEFAULT_RESULTS);
+	}
+
+	/**
+	 * Initializes a cache with the given limits
+	 *
+	 * @param maxQueries the maximum number of queries to keep
+	 * @param maxResults the maximum number of search results to keep across all
+	 *                   queries
+	 */
+	public QueryCache(int maxQueries, long maxResults) {
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.maxQueries = maxQueries;
+		this.maxResults = maxResults;
+		this.generation = -1;
+		this.hits = 0;
+		this.misses = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Builds the cache key for a stemmed query and search mode
+	 *
+	 * @param stems     the unique stems of the query
+	 * @param isPartial whether the search is partial or exact
+	 * @return the key to cache the search results under
+	 */
+	public static String key(Set<String> stems, boolean isPartial) {
+		return (isPartial ? "p:" : "e:") + String.join(" ", stems);
+	}
+
+	/**
+	 * Removes every entry without resetting the hit and miss counts
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Drops every entry if the generation is newer than the one the entries were
+	 * computed against. Must be called while holding the lock.
+	 *
+	 * @param current the generation of the index
+	 */
+	private void advance(long current) {
+		if (current > generation) {
+			clear();
+			generation = current;
+		}
+	}
+
+	/**
+	 * Returns the cached search results for the key if they were computed against
+	 * the given index generation. A generation older than the newest one seen is
+	 * always a miss.
+	 *
+	 * @param key     the key built by {@link #key(Set, boolean)}
+	 * @param current the current generation of the index
+	 * @return the unmodifiable search results or null if not cached
+	 */
+	public synchronized List<SearchResult> get(String key, long current) {
+		advance(current);
+		Entry entry = current == generation ? entries.get(key) : null;
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.results;
+	}
+
+	/**
+	 * @return the fraction of lookups that found cached results, or 0 if there
+	 *         have been no lookups
+	 */
+	public synchronized double hitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return the number of lookups that found cached results
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that did not find cached results
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Caches the search results unless they were computed against an older index
+	 * generation than the newest one seen, then evicts the least recently used entries until the cache is
+	 * within its limits
+	 *
+	 * @param key        the key built by {@link #key(Set, boolean)}
+	 * @param results    the search results to cache
+	 * @param computedAt the index generation the results were computed against
+	 * @return an unmodifiable copy of the search results
+	 */
+	public synchronized List<SearchResult> put(String key, List<SearchResult> results, long computedAt) {
+		List<SearchResult> copy = Collections.unmodifiableList(new ArrayList<SearchResult>(results));
+		advance(computedAt);
+		if (computedAt != generation) {
+			return copy;
+		}
+		Entry previous = entries.put(key, new Entry(copy, computedAt));
+		if (previous != null) {
+			size -= previous.results.size();
+		}
+		size += copy.size();
+
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (((entries.size() > maxQueries) || (size > maxResults)) && iterator.hasNext()) {
+			size -= iterator.next().results.size();
+			iterator.remove();
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the number of queries currently cached
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d queries, %d results, %.2f%% hit ratio", entries.size(), size, hitRatio() * 100);
+	}
+}
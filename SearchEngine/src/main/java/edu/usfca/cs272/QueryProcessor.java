@@ -1,12 +1,16 @@
 package edu.usfca.cs272;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -56,6 +60,35 @@ public class QueryProcessor implements QueryProcessorInterface {
 		searchRank = new TreeMap<String, ArrayList<SearchResult>>();
 	}
 
+	/**
+	 * Reads every query first and then searches them together, so query words
+	 * shared between lines are only looked up once
+	 *
+	 * @param path The path at which to read the queries at
+	 * @throws IOException if the file cannot be read / does not exist
+	 *
+	 * @see InvertedIndex#searchBatch(List, boolean)
+	 */
+	@Override
+	public void buildQuery(Path path) throws IOException {
+		TreeMap<String, TreeSet<String>> pending = new TreeMap<String, TreeSet<String>>();
+		try (BufferedReader reader = Files.newBufferedReader(path, UTF_8)) {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				TreeSet<String> uniqueStems = FileStemmer.uniqueStems(line, stemmer);
+				String joined = String.join(" ", uniqueStems);
+				if (!uniqueStems.isEmpty() && !searchRank.containsKey(joined)) {
+					pending.put(joined, uniqueStems);
+				}
+			}
+		}
+		var results = index.searchBatch(new ArrayList<TreeSet<String>>(pending.values()), isPartialSearch);
+		int i = 0;
+		for (String joined : pending.keySet()) {
+			searchRank.put(joined, results.get(i++));
+		}
+	}
+
 	@Override
 	public void buildQuery(String line) {
 		TreeSet<String> uniqueStems = FileStemmer.uniqueStems(line, stemmer);
@@ -107,8 +140,13 @@ public class QueryProcessor implements QueryProcessorInterface {
 		return searchRank.toString();
 	}
 
+	@Override
+	public void writeBinarySearchRank(Path output) throws IOException {
+		BinaryWriter.writeSearchResult(searchRank, output);
+	}
+
 	@Override
 	public void writeSearchRank(Path output) throws IOException {
-		JsonWriter.writeSearchResult(searchRank, output);
+		JsonWriter.streamSearchResult(searchRank, output);
 	}
 }
\ No newline at end of file
@@ -74,6 +74,14 @@ public interface QueryProcessorInterface {
 	 */
 	public String processLine(String query);
 
+	/**
+	 * @param output The output to write the search rank to in the binary format
+	 * @throws IOException if IO Exception occurs
+	 *
+	 * @see BinaryWriter
+	 */
+	public void writeBinarySearchRank(Path output) throws IOException;
+
 	/**
 	 * @param output The output to write the search rank to
 	 * @throws IOException if IO Exception occurs
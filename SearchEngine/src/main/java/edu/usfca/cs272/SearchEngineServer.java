@@ -1,18 +1,25 @@
 package edu.usfca.cs272;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.Map.Entry;
 
 import org.apache.commons.text.StringEscapeUtils;
 import org.eclipse.jetty.server.Server;
 
 import edu.usfca.cs272.InvertedIndex.SearchResult;
+import edu.usfca.cs272.Suggester.Suggestion;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,6 +30,62 @@ import jakarta.servlet.http.HttpServletResponse;
  */
 public class SearchEngineServer {
 
+	/**
+	 * The servlet that reports the progress of background seed crawls as JSON
+	 */
+	public static class CrawlStatusServlet extends HttpServlet {
+		/**
+		 * Defualt serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The background seed crawls to report on
+		 */
+		private final CrawlJobs crawls;
+
+		/**
+		 * @param crawls The background seed crawls to report on
+		 */
+		public CrawlStatusServlet(CrawlJobs crawls) {
+			this.crawls = crawls;
+		}
+
+		/**
+		 * Returns the progress of the crawl with the given id, or of every crawl if no
+		 * id is given
+		 *
+		 * @param request The request to be handled
+		 * @param response The response to be returned
+		 * @throws ServletException If a ServletException occurs
+		 * @throws IOException If an IOException occurs
+		 */
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			String id = request.getParameter("id");
+			String status;
+			if ((id == null) || id.isBlank()) {
+				status = crawls.status();
+			} else {
+				try {
+					status = crawls.status(Integer.parseInt(id.strip()));
+				} catch (NumberFormatException e) {
+					status = null;
+				}
+			}
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			if (status == null) {
+				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				response.getWriter().println("{\"error\": \"no such crawl\"}");
+			} else {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().println(status);
+			}
+		}
+	}
+
 	/**
 	 *  The servlet to browse the inverted index
 	 */
@@ -37,6 +100,48 @@ public class SearchEngineServer {
 		 */
 		private static final String TITLE = "WOOGLE";
 
+		/**
+		 * The page with the title filled in, split around the slot for the body
+		 */
+		private static final PageTemplate PAGE = new PageTemplate("""
+				<!DOCTYPE html>
+				<html lang="en">=
+				<head>
+				  <meta charset="utf-8">
+				  <meta name="viewport" content="width=device-width, initial-scale=1">
+				  <title>%1$s</title>
+				  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
+				  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
+				</head>
+				<body>
+				  <section class="hero is-primary is-bold">
+				    <div class="hero-body">
+				      <div class="container">
+				        <h1 class="title">%1$s</h1>
+				      </div>
+				    </div>
+				  </section>
+				  <section class="section">
+				    <div class="container">
+				      <h2 class="title">Index Browser</h2>
+					<form method="get" action="/indexbrowser">
+					<div class="control">
+						<input class="input" type="text" placeholder="Starts with" name="prefix" value="%2$s" size="50">
+							<div class="control">
+								<button class="button is-primary">Filter</button>
+							</div>
+						</div>
+					</form>
+				<pre>
+				%3$s
+				</pre>
+				    </div>
+				  </section>
+				</body>
+
+				</html>
+				""", TITLE);
+
 		/**
 		 * The thread safe index to look through to produce search results
 		 */
@@ -50,7 +155,8 @@ public class SearchEngineServer {
 		}
 
 		/**
-		 * Displays the inverted index with the word, and its locations with the number of positions
+		 * Displays one page of the inverted index with the word, and its locations with the number of positions.
+		 * The words can be filtered by prefix and the page continues after the word in the after parameter.
 		 *
 		 * @param request The request to be handled
 		 * @param response The response to be returned
@@ -60,48 +166,33 @@ public class SearchEngineServer {
 		@Override
 		protected void doGet(HttpServletRequest request, HttpServletResponse response)
 				throws ServletException, IOException {
-			String html = """
-					<!DOCTYPE html>
-					<html lang="en">=
-					<head>
-					  <meta charset="utf-8">
-					  <meta name="viewport" content="width=device-width, initial-scale=1">
-					  <title>%1$s</title>
-					  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
-					  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
-					</head>
-					<body>
-					  <section class="hero is-primary is-bold">
-					    <div class="hero-body">
-					      <div class="container">
-					        <h1 class="title">%1$s</h1>
-					      </div>
-					    </div>
-					  </section>
-					  <section class="section">
-					    <div class="container">
-					      <h2 class="title">Index Browser</h2>
-					<pre>
-					%2$s
-					</pre>
-					    </div>
-					  </section>
-					</body>
-
-					</html>
-					""";
-			StringBuilder indexout = new StringBuilder();
-			for (String words : multiThread.viewWords()) {
-				indexout.append("The word: " + words + "\n");
-				for (String locations : multiThread.viewLocations(words)) {
-					indexout.append("<a href=" + locations + ">" + locations + "</a>\n");
-					indexout.append("	Number of positions: " + multiThread.numPositions(words, locations) + "\n");
-				}
+			if (notModified(multiThread, request, response)) {
+				return;
 			}
-			PrintWriter out = response.getWriter();
-			out.printf(html, TITLE, indexout.toString());
-			response.setContentType("text/html");
-			response.setStatus(HttpServletResponse.SC_OK);
+			String prefix = prefix(request);
+			int limit = pageSize(request);
+			// one extra word tells whether there is another page
+			var page = multiThread.pageWords(prefix, request.getParameter("after"), limit + 1);
+			String next = page.size() > limit ? page.headMap(page.lastKey()).lastKey() : null;
+			if (next != null) {
+				page.pollLastEntry();
+			}
+			Utf8Buffer out = startHtml(response);
+			PAGE.render(out, value -> value.write(StringEscapeUtils.escapeHtml4(prefix)), body -> {
+				for (var words : page.entrySet()) {
+					body.write("The word: ");
+					body.write(words.getKey());
+					body.write('\n');
+					for (var locations : words.getValue().entrySet()) {
+						writeLink(locations.getKey(), body);
+						body.write("	Number of positions: ");
+						body.writeInt(locations.getValue());
+						body.write('\n');
+					}
+				}
+				writeNextPage("/indexbrowser", prefix, next, limit, body);
+			});
+			out.flush();
 		}
 	}
 
@@ -120,6 +211,48 @@ public class SearchEngineServer {
 		 */
 		private static final String TITLE = "WOOGLE";
 
+		/**
+		 * The page with the title filled in, split around the slot for the body
+		 */
+		private static final PageTemplate PAGE = new PageTemplate("""
+				<!DOCTYPE html>
+				<html lang="en">=
+				<head>
+				  <meta charset="utf-8">
+				  <meta name="viewport" content="width=device-width, initial-scale=1">
+				  <title>%1$s</title>
+				  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
+				  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
+				</head>
+				<body>
+				  <section class="hero is-primary is-bold">
+				    <div class="hero-body">
+				      <div class="container">
+				        <h1 class="title">%1$s</h1>
+				      </div>
+				    </div>
+				  </section>
+				  <section class="section">
+				    <div class="container">
+				      <h2 class="title">Location Browser</h2>
+					<form method="get" action="/location">
+					<div class="control">
+						<input class="input" type="text" placeholder="Starts with" name="prefix" value="%2$s" size="50">
+							<div class="control">
+								<button class="button is-primary">Filter</button>
+							</div>
+						</div>
+					</form>
+				<pre>
+				%3$s
+				</pre>
+				    </div>
+				  </section>
+				</body>
+
+				</html>
+				""", TITLE);
+
 		/**
 		 * The thread safe index to look through to produce search results
 		 */
@@ -133,7 +266,8 @@ public class SearchEngineServer {
 		}
 
 		/**
-		 * Displays a index of every location in the inverted index with its associated wordcount
+		 * Displays one page of the locations in the inverted index with their associated wordcount.
+		 * The locations can be filtered by prefix and the page continues after the location in the after parameter.
 		 *
 		 * @param request The request to be handled
 		 * @param response The response to be returned
@@ -143,46 +277,198 @@ public class SearchEngineServer {
 		@Override
 		protected void doGet(HttpServletRequest request, HttpServletResponse response)
 				throws ServletException, IOException {
-			String html = """
-					<!DOCTYPE html>
-					<html lang="en">=
-					<head>
-					  <meta charset="utf-8">
-					  <meta name="viewport" content="width=device-width, initial-scale=1">
-					  <title>%1$s</title>
-					  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
-					  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
-					</head>
-					<body>
-					  <section class="hero is-primary is-bold">
-					    <div class="hero-body">
-					      <div class="container">
-					        <h1 class="title">%1$s</h1>
-					      </div>
-					    </div>
-					  </section>
-					  <section class="section">
-					    <div class="container">
-					      <h2 class="title">Location Browser</h2>
-					<pre>
-					%2$s
-					</pre>
-					    </div>
-					  </section>
-					</body>
-
-					</html>
-					""";
-			StringBuilder indexout = new StringBuilder();
-			for (Entry<String, Integer> locations : multiThread.viewCounts().entrySet()) {
-				String theLocation = locations.getKey();
-				indexout.append("<a href=" + theLocation + ">" + theLocation + "</a>\n");
-				indexout.append("Word Count: " + locations.getValue() + "\n");
+			if (notModified(multiThread, request, response)) {
+				return;
 			}
-			PrintWriter out = response.getWriter();
-			out.printf(html, TITLE, indexout.toString());
-			response.setContentType("text/html");
+			String prefix = prefix(request);
+			int limit = pageSize(request);
+			// one extra location tells whether there is another page
+			var page = multiThread.pageCounts(prefix, request.getParameter("after"), limit + 1);
+			String next = page.size() > limit ? page.headMap(page.lastKey()).lastKey() : null;
+			if (next != null) {
+				page.pollLastEntry();
+			}
+			Utf8Buffer out = startHtml(response);
+			PAGE.render(out, value -> value.write(StringEscapeUtils.escapeHtml4(prefix)), body -> {
+				for (Entry<String, Integer> locations : page.entrySet()) {
+					writeLink(locations.getKey(), body);
+					body.write("Word Count: ");
+					body.writeInt(locations.getValue());
+					body.write('\n');
+				}
+				writeNextPage("/location", prefix, next, limit, body);
+			});
+			out.flush();
+		}
+	}
+
+	/**
+	 * The servlet that reports server metrics in the Prometheus text format
+	 */
+	public static class MetricsServlet extends HttpServlet {
+
+		/**
+		 * Defualt serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The metrics to report
+		 */
+		private final ServerMetrics metrics;
+
+		/**
+		 * @param metrics The metrics to report
+		 */
+		public MetricsServlet(ServerMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Writes every metric for a Prometheus scrape
+		 *
+		 * @param request The request to be handled
+		 * @param response The response to be returned
+		 * @throws ServletException If a ServletException occurs
+		 * @throws IOException If an IOException occurs
+		 */
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			response.setContentType("text/plain; version=0.0.4");
+			response.setCharacterEncoding("UTF-8");
 			response.setStatus(HttpServletResponse.SC_OK);
+			Utf8Buffer out = new Utf8Buffer(Channels.newChannel(response.getOutputStream()), BUFFER_SIZE);
+			metrics.write(out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * The servlet that returns search results as JSON for programs instead of
+	 * people. Only the requested page of results is ranked and written, and it is
+	 * streamed straight to the response.
+	 */
+	public static class SearchApiServlet extends HttpServlet {
+
+		/**
+		 * Defualt serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The number of results to return if no limit is given
+		 */
+		private static final int DEFAULT_LIMIT = 10;
+
+		/**
+		 * The most results that can be returned by a single request
+		 */
+		private static final int MAX_LIMIT = 100;
+
+		/**
+		 * The search results shared between every request
+		 */
+		private final QueryCache cache;
+
+		/**
+		 * The thread safe index to look through to produce search results
+		 */
+		private final ThreadSafeInvertedIndex multiThread;
+
+		/**
+		 * The metrics to record queries in
+		 */
+		private final ServerMetrics metrics;
+
+		/**
+		 * @param index The index to look through
+		 * @param cache The search results shared between every request
+		 * @param metrics The metrics to record queries in
+		 */
+		public SearchApiServlet(ThreadSafeInvertedIndex index, QueryCache cache, ServerMetrics metrics) {
+			this.multiThread = index;
+			this.cache = cache;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Returns one page of search results for the query in q. The page is chosen
+		 * with offset and limit, and exact=true switches to exact search.
+		 *
+		 * @param request The request to be handled
+		 * @param response The response to be returned
+		 * @throws ServletException If a ServletException occurs
+		 * @throws IOException If an IOException occurs
+		 */
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			int offset;
+			int limit;
+			try {
+				offset = parameter(request, "offset", 0);
+				limit = Math.min(parameter(request, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+			} catch (NumberFormatException e) {
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().println("{\"error\": \"offset and limit must be non-negative numbers\"}");
+				return;
+			}
+			if (notModified(multiThread, request, response)) {
+				return;
+			}
+			String query = request.getParameter("q");
+			query = query == null ? "" : query;
+			String exact = request.getParameter("exact");
+			boolean isExact = (exact != null) && !exact.equalsIgnoreCase("false") && !exact.equals("0");
+
+			TreeSet<String> stems = FileStemmer.uniqueStems(query);
+			List<SearchResult> page = new ArrayList<SearchResult>();
+			int total = 0;
+			if (!stems.isEmpty()) {
+				// a large offset plus the limit would overflow an int
+				int end = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+				List<SearchResult> cached = cache.get(QueryCache.key(stems, !isExact), multiThread.generation());
+				if (cached != null) {
+					total = cached.size();
+					page = cached.subList(Math.min(offset, total), Math.min(end, total));
+				} else {
+					// only rank as far as this page, the partial list is not worth caching
+					ArrayList<SearchResult> top = new ArrayList<SearchResult>();
+					total = multiThread.searchTop(stems, !isExact, end, top);
+					page = top.subList(Math.min(offset, top.size()), top.size());
+				}
+				metrics.recordQuery(isExact, total);
+			}
+
+			response.setStatus(HttpServletResponse.SC_OK);
+			Utf8Buffer out = new Utf8Buffer(Channels.newChannel(response.getOutputStream()), BUFFER_SIZE);
+			out.write("{\n  \"query\": ");
+			JsonWriter.writeEscaped(query, out);
+			out.write(",\n  \"exact\": ");
+			out.write(isExact ? "true" : "false");
+			out.write(",\n  \"total\": ");
+			out.writeInt(total);
+			out.write(",\n  \"offset\": ");
+			out.writeInt(offset);
+			out.write(",\n  \"limit\": ");
+			out.writeInt(limit);
+			out.write(",\n  \"results\": [");
+			boolean first = true;
+			for (SearchResult result : page) {
+				out.write(first ? "\n    {\"count\": " : ",\n    {\"count\": ");
+				out.writeInt(result.getNumMatches());
+				out.write(", \"score\": ");
+				out.writeFixed(result.getScore());
+				out.write(", \"where\": ");
+				JsonWriter.writeEscaped(result.getLocationOfFile(), out);
+				out.write('}');
+				first = false;
+			}
+			out.write(first ? "]\n}\n" : "\n  ]\n}\n");
+			out.flush();
 		}
 	}
 
@@ -201,25 +487,98 @@ public class SearchEngineServer {
 		 */
 		private static final String TITLE = "WOOGLE";
 
+		/**
+		 * The page with the title filled in, split around the slot for the body
+		 */
+		private static final PageTemplate PAGE = new PageTemplate("""
+				<!DOCTYPE html>
+				<html lang="en">=
+				<head>
+				  <meta charset="utf-8">
+				  <meta name="viewport" content="width=device-width, initial-scale=1">
+				  <title>%1$s</title>
+				  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
+				  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
+				</head>
+				<body>
+				  <section class="hero is-primary is-bold">
+				    <div class="hero-body">
+				      <div class="container">
+				        <h1 class="title">%1$s</h1>
+				      </div>
+				    </div>
+				  </section>
+				  <section class="section">
+				    <div class="container">
+				      <h2 class="title">The %1$s Search Engine </h2>
+					<form method="get" action="/">
+					<div class="control">
+						<input class="input" type="text" placeholder="Input search query here" name="word" size="50">
+							<div class="control">
+								<button class="button is-primary">Submit</button>
+							</div>
+						<div class="searchMethod">
+							<div class="control">
+								<label class="checkbox">
+									<input type="checkbox" name="exact">
+									Exact Search
+								</label>
+								</div>
+							</div>
+						</div>
+					</form>
+					<button class="button"><a href="/shutdown"> Shutdown Woogle </a></button>
+					<form method="get" action="/">
+					<div class="control">
+						<input class="input" type="text" placeholder="Add new seed" name="seed" size="50">
+							<div class="control">
+								<button class="button is-primary">Add Seed</button>
+							</div>
+					</form>
+				<pre>
+				%2$s
+				</pre>
+				    </div>
+				  </section>
+				</body>
+
+				</html>
+				""", TITLE);
+
+		/**
+		 * The search results shared between every request
+		 */
+		private final QueryCache cache;
+
 		/**
 		 * The thread safe index to look through to produce search results
 		 */
 		private final ThreadSafeInvertedIndex multiThread;
 
 		/**
-		 * The number of workers to use when using the query processor.
+		 * The background seed crawls started from this page
+		 */
+		private final CrawlJobs crawls;
+
+		/**
+		 * The metrics to record queries in
 		 */
-		private final int numWorkers;
+		private final ServerMetrics metrics;
 
 		/**
 		 * The constructor for the Search Engine servlet
 		 *
 		 * @param index The index to look through and use
-		 * @param numWorkers The number of workers to use when processing queries.
+		 * @param crawls The background seed crawls to add new seeds to
+		 * @param cache The search results shared between every request
+		 * @param metrics The metrics to record queries in
 		 */
-		public SearchEngineServlet(ThreadSafeInvertedIndex index, int numWorkers) {
+		public SearchEngineServlet(ThreadSafeInvertedIndex index, CrawlJobs crawls, QueryCache cache,
+				ServerMetrics metrics) {
 			this.multiThread = index;
-			this.numWorkers = numWorkers;
+			this.crawls = crawls;
+			this.cache = cache;
+			this.metrics = metrics;
 		}
 
 		/**
@@ -233,120 +592,76 @@ public class SearchEngineServer {
 		@Override
 		protected void doGet(HttpServletRequest request, HttpServletResponse response)
 				throws ServletException, IOException {
-			String html = """
-					<!DOCTYPE html>
-					<html lang="en">=
-					<head>
-					  <meta charset="utf-8">
-					  <meta name="viewport" content="width=device-width, initial-scale=1">
-					  <title>%1$s</title>
-					  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
-					  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
-					</head>
-					<body>
-					  <section class="hero is-primary is-bold">
-					    <div class="hero-body">
-					      <div class="container">
-					        <h1 class="title">%1$s</h1>
-					      </div>
-					    </div>
-					  </section>
-					  <section class="section">
-					    <div class="container">
-					      <h2 class="title">The %1$s Search Engine </h2>
-						<form method="get" action="/">
-						<div class="control">
-							<input class="input" type="text" placeholder="Input search query here" name="word" size="50">
-								<div class="control">
-									<button class="button is-primary">Submit</button>
-								</div>
-							<div class="searchMethod">
-								<div class="control">
-									<label class="checkbox">
-										<input type="checkbox" name="exact">
-										Exact Search
-									</label>
-									</div>
-								</div>
-							</div>
-						</form>
-						<button class="button"><a href="/shutdown"> Shutdown Woogle </a></button>
-						<form method="get" action="/">
-						<div class="control">
-							<input class="input" type="text" placeholder="Add new seed" name="seed" size="50">
-								<div class="control">
-									<button class="button is-primary">Add Seed</button>
-								</div>
-						</form>
-					<pre>
-					%2$s
-					</pre>
-					    </div>
-					  </section>
-					</body>
-
-					</html>
-					""";
-			StringBuilder result = new StringBuilder();
-			WorkQueue newWorkers = new WorkQueue(numWorkers);
+			StringBuilder notice = new StringBuilder();
 			String newSeed = request.getParameter("seed");
 			newSeed = (newSeed == null) || newSeed.isBlank() ? "" : newSeed;
+			// adding a seed changes things, so only plain searches can be answered from the client cache
+			if (newSeed.isBlank() && notModified(multiThread, request, response)) {
+				return;
+			}
 			if (!newSeed.isBlank()) {
-				if (multiThread.hasCount(newSeed)) {
-					result.append("WARNING: Index already has location: " + newSeed + "\n");
-				} else {
-					try {
-						URI newURI = LinkFinder.makeUri(newSeed);
-						if (newURI.isAbsolute()) {
-							WebCrawler webCrawler = new WebCrawler(newWorkers, multiThread, 0);
-							webCrawler.buildIndex(newURI.toURL());
-							newWorkers.join();
+				try {
+					URI newURI = LinkFinder.makeUri(newSeed);
+					if (newURI.isAbsolute()) {
+						// an indexed seed is crawled again, and only the pages that changed are indexed again
+						if (multiThread.hasCount(newSeed)) {
+							notice.append("Index already has this location, checking it for changes\n");
+						}
+						int id = crawls.submit(newURI.toURL());
+						if (id < 0) {
+							notice.append("Too many crawls are running, try again later\n");
 						} else {
-							// TODO newSeed might have XSS issues
-							result.append("Invalid URL: " + newSeed + "\n");
+							notice.append("Started crawl " + id + " in the background: <a href=\"/crawl?id=" + id
+									+ "\">check progress</a>\n");
 						}
-					} catch (MalformedURLException e) {
-						System.err.println("Error converting link to URL. ");
+					} else {
+						notice.append("Invalid URL: " + StringEscapeUtils.escapeHtml4(newSeed) + "\n");
 					}
+				} catch (MalformedURLException e) {
+					System.err.println("Error converting link to URL. ");
 				}
 			}
 			Instant start = Instant.now();
-			MultiThreadedQueryProcessor queryProcessor = null;
 			String search = request.getParameter("word");
 			boolean isExact = request.getParameter("exact") != null;
 			search = (search == null) || search.isBlank() ? "" : search;
-			search = StringEscapeUtils.escapeHtml4(search);
-			if (isExact) {
-				queryProcessor = new MultiThreadedQueryProcessor(multiThread, false, newWorkers);
-			} else {
-				queryProcessor = new MultiThreadedQueryProcessor(multiThread, true, newWorkers);
+			// stemmed as typed, the same as /api/search, so both share cache entries
+			TreeSet<String> stems = FileStemmer.uniqueStems(search);
+			String key = QueryCache.key(stems, !isExact);
+			long generation = multiThread.generation();
+			Collection<SearchResult> searchResults = cache.get(key, generation);
+			if (searchResults == null) {
+				// a single query is cheaper to search inline than to hand to the workers
+				ArrayList<SearchResult> found = stems.isEmpty() ? new ArrayList<SearchResult>()
+						: multiThread.search(stems, !isExact);
+				searchResults = cache.put(key, found, generation);
+			}
+			if (!stems.isEmpty()) {
+				metrics.recordQuery(isExact, searchResults.size());
 			}
-			queryProcessor.buildQuery(search);
-			newWorkers.join();
-			Collection<SearchResult> searchResults = queryProcessor.getSearchResults(search);
 			long elapsed = Duration.between(start, Instant.now()).toMillis();
 			double seconds = (double) elapsed / Duration.ofSeconds(1).toMillis();
-			if (!searchResults.isEmpty()) {
-				result.append("Number of results: " + searchResults.size() + "\n");
-				result.append("It took " + seconds + " to generate those results. \n");
-				for (SearchResult searches : searchResults) {
-					String location = searches.getLocationOfFile();
-					String score = searches.getFormattedScore();
-					double numMatches = searches.getNumMatches();
-					result.append("<a href=" + location + ">" + location + "</a>\n");
-					result.append("\tScore: " + score + "\n");
-					result.append("\tMatches: " + numMatches + "\n");
+			Collection<SearchResult> found = searchResults;
+			Utf8Buffer out = startHtml(response);
+			PAGE.render(out, body -> {
+				body.write(notice.toString());
+				if (!found.isEmpty()) {
+					body.write("Number of results: ");
+					body.writeInt(found.size());
+					body.write("\nIt took " + seconds + " to generate those results. \n");
+					for (SearchResult searches : found) {
+						writeLink(searches.getLocationOfFile(), body);
+						body.write("\tScore: ");
+						body.writeFixed(searches.getScore());
+						body.write("\n\tMatches: ");
+						body.write(Double.toString(searches.getNumMatches()));
+						body.write('\n');
+					}
+				} else {
+					body.write("No results found. ");
 				}
-			} else {
-				result.append("No results found. ");
-			}
-			if (newWorkers != null) {
-				newWorkers.shutdown();
-			}
-			PrintWriter out = response.getWriter();
-			out.printf(html, TITLE, result.toString());
-			response.setContentType("text/html");
-			response.setStatus(HttpServletResponse.SC_OK);
+			});
+			out.flush();
 		}
 	}
 
@@ -365,6 +680,43 @@ public class SearchEngineServer {
 		 */
 		private static final String TITLE = "WOOGLE";
 
+		/**
+		 * The page with the title filled in, split around the slot for the body
+		 */
+		private static final PageTemplate PAGE = new PageTemplate("""
+				<!DOCTYPE html>
+				<html lang="en">=
+				<head>
+				  <meta charset="utf-8">
+				  <meta name="viewport" content="width=device-width, initial-scale=1">
+				  <title>%1$s</title>
+				  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
+				  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
+				</head>
+				<body>
+				  <section class="hero is-primary is-bold">
+				    <div class="hero-body">
+				      <div class="container">
+				        <h1 class="title">%1$s</h1>
+				      </div>
+				    </div>
+				  </section>
+				  <section class="section">
+				    <div class="container">
+				      <h2 class="title">Shutdown %1$s</h2>
+					<form method="get" action="/shutdown">
+					<div class="control">
+						<input class="input" type="text" placeholder="Input admin password here" name="word" size="50">
+							<div class="control">
+								<button class="button is-primary">Shutdown</button>
+							</div>
+					</form>
+				    </div>
+				  </section>
+				</body>
+				</html>
+				""", TITLE);
+
 		/**
 		 * The server to shutdown
 		 */
@@ -390,39 +742,6 @@ public class SearchEngineServer {
 		@Override
 		protected void doGet(HttpServletRequest request, HttpServletResponse response)
 				throws ServletException, IOException {
-			String html = """
-					<!DOCTYPE html>
-					<html lang="en">=
-					<head>
-					  <meta charset="utf-8">
-					  <meta name="viewport" content="width=device-width, initial-scale=1">
-					  <title>%1$s</title>
-					  <link rel="stylesheet" href="https://cdn.jsdelivr.net/npm/bulma@0.9.4/css/bulma.min.css">
-					  <script src="https://cdnjs.cloudflare.com/ajax/libs/font-awesome/5.15.4/js/all.min.js" integrity="sha512-Tn2m0TIpgVyTzzvmxLNuqbSJH3JP8jm+Cy3hvHrW7ndTDcJ1w5mBiksqDBb8GpE2ksktFvDB/ykZ0mDpsZj20w==" crossorigin="anonymous" referrerpolicy="no-referrer"></script>
-					</head>
-					<body>
-					  <section class="hero is-primary is-bold">
-					    <div class="hero-body">
-					      <div class="container">
-					        <h1 class="title">%1$s</h1>
-					      </div>
-					    </div>
-					  </section>
-					  <section class="section">
-					    <div class="container">
-					      <h2 class="title">Shutdown %1$s</h2>
-						<form method="get" action="/shutdown">
-						<div class="control">
-							<input class="input" type="text" placeholder="Input admin password here" name="word" size="50">
-								<div class="control">
-									<button class="button is-primary">Shutdown</button>
-								</div>
-						</form>
-					    </div>
-					  </section>
-					</body>
-					</html>
-					""";
 			String password = request.getParameter("word");
 			if ((password != null) && (password.compareTo("woogleshutdown") == 0)) {
 				try {
@@ -432,10 +751,256 @@ public class SearchEngineServer {
 					System.err.println("Unable to shutdown server");
 				}
 			}
-			PrintWriter out = response.getWriter();
-			out.printf(html, TITLE);
-			response.setContentType("text/html");
+			Utf8Buffer out = startHtml(response);
+			PAGE.render(out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * The servlet that suggests words from the index for a prefix as JSON, meant
+	 * to be called on every keystroke
+	 */
+	public static class SuggestServlet extends HttpServlet {
+
+		/**
+		 * Defualt serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The suggester to look words up in
+		 */
+		private final Suggester suggester;
+
+		/**
+		 * @param suggester The suggester to look words up in
+		 */
+		public SuggestServlet(Suggester suggester) {
+			this.suggester = suggester;
+		}
+
+		/**
+		 * Returns the most common words starting with the last word of q, with at
+		 * most n words
+		 *
+		 * @param request The request to be handled
+		 * @param response The response to be returned
+		 * @throws ServletException If a ServletException occurs
+		 * @throws IOException If an IOException occurs
+		 */
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			int limit;
+			try {
+				limit = Math.min(parameter(request, "n", suggester.limit()), suggester.limit());
+			} catch (NumberFormatException e) {
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().println("{\"error\": \"n must be a non-negative number\"}");
+				return;
+			}
+			String query = request.getParameter("q");
+			String[] words = FileStemmer.parse(query == null ? "" : query);
+			String prefix = words.length == 0 ? "" : words[words.length - 1];
+			List<Suggestion> suggestions = prefix.isEmpty() ? List.of() : suggester.suggest(prefix);
+
 			response.setStatus(HttpServletResponse.SC_OK);
+			Utf8Buffer out = new Utf8Buffer(Channels.newChannel(response.getOutputStream()), BUFFER_SIZE);
+			out.write("{\"prefix\": ");
+			JsonWriter.writeEscaped(prefix, out);
+			out.write(", \"suggestions\": [");
+			for (int i = 0; i < Math.min(limit, suggestions.size()); i++) {
+				out.write(i == 0 ? "{\"word\": " : ", {\"word\": ");
+				JsonWriter.writeEscaped(suggestions.get(i).getWord(), out);
+				out.write(", \"documents\": ");
+				out.writeInt(suggestions.get(i).getDocuments());
+				out.write('}');
+			}
+			out.write("]}\n");
+			out.flush();
+		}
+	}
+
+	/**
+	 * The size of the buffer pages are streamed through
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Responses smaller than this many bytes are not worth compressing
+	 */
+	public static final int MIN_GZIP_SIZE = 1024;
+
+	/**
+	 * The most threads the server uses to answer requests
+	 */
+	public static final int MAX_THREADS = 64;
+
+	/**
+	 * The threads the server keeps even when idle
+	 */
+	public static final int MIN_THREADS = 8;
+
+	/**
+	 * How long an idle thread above the minimum is kept in milliseconds
+	 */
+	public static final int IDLE_MILLIS = 60_000;
+
+	/**
+	 * The most requests that can wait for a thread, anything more is refused
+	 */
+	public static final int QUEUE_CAPACITY = 256;
+
+	/**
+	 * The number of rows on a page of the index or location browser if no limit
+	 * is given
+	 */
+	private static final int PAGE_SIZE = 100;
+
+	/**
+	 * The most rows on a page of the index or location browser
+	 */
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * Reads a non-negative number from the request
+	 *
+	 * @param request The request to read from
+	 * @param name The name of the parameter
+	 * @param defaultValue The value to use if the parameter is missing
+	 * @return the number in the parameter or the default value
+	 * @throws NumberFormatException if the parameter is not a non-negative number
+	 */
+	private static int parameter(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		if ((value == null) || value.isBlank()) {
+			return defaultValue;
+		}
+		int number = Integer.parseInt(value.strip());
+		if (number < 0) {
+			throw new NumberFormatException(name + " is negative");
+		}
+		return number;
+	}
+
+	/**
+	 * Adds validators based on the index generation to the response and checks
+	 * them against the request. Every page built from the index only changes when
+	 * the index does, so a client that already has the page for the current
+	 * generation is told to reuse it.
+	 *
+	 * @param index The index the page is built from
+	 * @param request The request to check
+	 * @param response The response to add the validators to
+	 * @return true if a 304 Not Modified response was sent and the page should
+	 *         not be written
+	 */
+	private static boolean notModified(ThreadSafeInvertedIndex index, HttpServletRequest request,
+			HttpServletResponse response) {
+		// weak because the timing line on the search page differs between requests
+		// the time keeps tags from a restarted server with a different index apart
+		String etag = "W/\"" + index.generation() + "-" + Long.toHexString(index.lastModified()) + "\"";
+		long lastModified = index.lastModified() / 1000 * 1000;
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", "no-cache");
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		boolean matches;
+		if (ifNoneMatch != null) {
+			matches = ifNoneMatch.strip().equals("*");
+			for (String tag : ifNoneMatch.split(",")) {
+				matches |= tag.strip().equals(etag) || ("W/" + tag.strip()).equals(etag);
+			}
+		} else {
+			matches = request.getDateHeader("If-Modified-Since") >= lastModified;
+		}
+		if (matches) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return matches;
+	}
+
+	/**
+	 * Reads the number of rows to show on a browser page from the request
+	 *
+	 * @param request The request to read from
+	 * @return the number of rows to show
+	 */
+	private static int pageSize(HttpServletRequest request) {
+		try {
+			return Math.max(1, Math.min(parameter(request, "limit", PAGE_SIZE), MAX_PAGE_SIZE));
+		} catch (NumberFormatException e) {
+			return PAGE_SIZE;
+		}
+	}
+
+	/**
+	 * Reads the prefix to filter a browser page by from the request
+	 *
+	 * @param request The request to read from
+	 * @return the prefix, which is empty if none was given
+	 */
+	private static String prefix(HttpServletRequest request) {
+		String prefix = request.getParameter("prefix");
+		return prefix == null ? "" : prefix.strip();
+	}
+
+	/**
+	 * Sets up the response for an HTML page and returns a buffer that streams to it
+	 *
+	 * @param response The response to write the page to
+	 * @return the buffer to render the page into, which must be flushed at the end
+	 * @throws IOException If unable to open the response
+	 */
+	private static Utf8Buffer startHtml(HttpServletResponse response) throws IOException {
+		response.setContentType("text/html");
+		response.setCharacterEncoding("UTF-8");
+		response.setStatus(HttpServletResponse.SC_OK);
+		return new Utf8Buffer(Channels.newChannel(response.getOutputStream()), BUFFER_SIZE);
+	}
+
+	/**
+	 * Writes a link to the location with the location as its text
+	 *
+	 * @param location The location to link to
+	 * @param out The buffer to write to
+	 * @throws IOException If unable to write
+	 */
+	private static void writeLink(String location, Utf8Buffer out) throws IOException {
+		out.write("<a href=");
+		out.write(location);
+		out.write('>');
+		out.write(location);
+		out.write("</a>\n");
+	}
+
+	/**
+	 * Writes a link to the next page of a browser, if there is one
+	 *
+	 * @param path The path of the browser
+	 * @param prefix The prefix the pages are filtered by
+	 * @param next The last row of this page, or null if this is the last page
+	 * @param limit The number of rows on each page
+	 * @param out The buffer to write to
+	 * @throws IOException If unable to write
+	 */
+	private static void writeNextPage(String path, String prefix, String next, int limit, Utf8Buffer out)
+			throws IOException {
+		if (next == null) {
+			return;
 		}
+		out.write("\n<a href=\"");
+		out.write(path);
+		out.write("?prefix=");
+		out.write(URLEncoder.encode(prefix, UTF_8));
+		out.write("&amp;after=");
+		out.write(URLEncoder.encode(next, UTF_8));
+		out.write("&amp;limit=");
+		out.writeInt(limit);
+		out.write("\">Next page</a>\n");
 	}
 }
@@ -0,0 +1,303 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Collects numbers about the running server and writes them in the Prometheus
+ * text format. As a filter it times every request by servlet path. The search
+ * servlets also record their queries here. Index size, work queue depth, cache
+ * and admission numbers are read when the metrics are written.
+ */
+public class ServerMetrics implements Filter {
+
+	/**
+	 * A histogram with fixed buckets that can be updated from many threads
+	 * without locking
+	 */
+	private static class Histogram {
+
+		/**
+		 * The upper bound of each bucket
+		 */
+		private final double[] bounds;
+
+		/**
+		 * The number of values in each bucket, with one extra bucket for anything
+		 * above the last bound
+		 */
+		private final LongAdder[] buckets;
+
+		/**
+		 * The number of values recorded
+		 */
+		private final LongAdder count;
+
+		/**
+		 * The sum of the values recorded, in millionths so it can be added without
+		 * a lock
+		 */
+		private final LongAdder micros;
+
+		/**
+		 * Initializes an empty histogram
+		 *
+		 * @param bounds the upper bound of each bucket in increasing order
+		 */
+		public Histogram(double[] bounds) {
+			this.bounds = bounds;
+			this.buckets = new LongAdder[bounds.length + 1];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+			this.count = new LongAdder();
+			this.micros = new LongAdder();
+		}
+
+		/**
+		 * Adds a value to the histogram
+		 *
+		 * @param value the value to add
+		 */
+		public void record(double value) {
+			int i = 0;
+			while ((i < bounds.length) && (value > bounds[i])) {
+				i++;
+			}
+			buckets[i].increment();
+			count.increment();
+			micros.add(Math.round(value * 1_000_000));
+		}
+
+		/**
+		 * Writes the buckets, sum and count of this histogram
+		 *
+		 * @param name   the name of the metric
+		 * @param labels the labels to add to every line, or an empty string
+		 * @param out    the buffer to write to
+		 * @throws IOException if unable to write
+		 */
+		public void write(String name, String labels, Utf8Buffer out) throws IOException {
+			String separator = labels.isEmpty() ? "" : ",";
+			long cumulative = 0;
+			for (int i = 0; i <= bounds.length; i++) {
+				cumulative += buckets[i].sum();
+				out.write(name);
+				out.write("_bucket{");
+				out.write(labels);
+				out.write(separator);
+				out.write("le=\"");
+				out.write(i < bounds.length ? Double.toString(bounds[i]) : "+Inf");
+				out.write("\"} ");
+				out.writeLong(cumulative);
+				out.write('\n');
+			}
+			writeSample(name + "_sum", labels, Double.toString(micros.sum() / 1_000_000.0), out);
+			writeSample(name + "_count", labels, Long.toString(count.sum()), out);
+		}
+	}
+
+	/**
+	 * The latency buckets in seconds, from 100 microseconds to 10 seconds in 1, 2,
+	 * 5 steps
+	 */
+	private static final double[] LATENCY_BOUNDS = { 0.0001, 0.0002, 0.0005, 0.001, 0.002, 0.005, 0.01, 0.02, 0.05,
+			0.1, 0.2, 0.5, 1, 2, 5, 10 };
+
+	/**
+	 * The most servlet paths to keep latencies for separately
+	 */
+	private static final int MAX_PATHS = 32;
+
+	/**
+	 * The buckets for the number of search results of a query
+	 */
+	private static final double[] RESULT_BOUNDS = { 0, 1, 10, 100, 1000, 10000, 100000 };
+
+	/**
+	 * The admission filter to report on, or null if there is none
+	 */
+	private final AdmissionFilter admission;
+
+	/**
+	 * The shared search result cache to report on
+	 */
+	private final QueryCache cache;
+
+	/**
+	 * The number of exact queries searched
+	 */
+	private final LongAdder exactQueries;
+
+	/**
+	 * The index to report the size of
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The request latency of each servlet path
+	 */
+	private final ConcurrentHashMap<String, Histogram> latencies;
+
+	/**
+	 * The number of partial queries searched
+	 */
+	private final LongAdder partialQueries;
+
+	/**
+	 * The number of search results of each query
+	 */
+	private final Histogram results;
+
+	/**
+	 * The work queue to report the depth of
+	 */
+	private final WorkQueue workers;
+
+	/**
+	 * Initializes the metrics
+	 *
+	 * @param index     the index to report the size of
+	 * @param workers   the work queue to report the depth of
+	 * @param cache     the shared search result cache to report on
+	 * @param admission the admission filter to report on, or null if there is none
+	 */
+	public ServerMetrics(ThreadSafeInvertedIndex index, WorkQueue workers, QueryCache cache,
+			AdmissionFilter admission) {
+		this.index = index;
+		this.workers = workers;
+		this.cache = cache;
+		this.admission = admission;
+		this.latencies = new ConcurrentHashMap<String, Histogram>();
+		this.exactQueries = new LongAdder();
+		this.partialQueries = new LongAdder();
+		this.results = new Histogram(RESULT_BOUNDS);
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			String path = ((HttpServletRequest) request).getServletPath();
+			Histogram latency = latencies.get(path);
+			if (latency == null) {
+				// the default servlet sees every unknown path, which must not become a new series each
+				latency = latencies.computeIfAbsent(latencies.size() < MAX_PATHS ? path : "other",
+						servlet -> new Histogram(LATENCY_BOUNDS));
+			}
+			latency.record((System.nanoTime() - start) / 1e9);
+		}
+	}
+
+	/**
+	 * Records a searched query
+	 *
+	 * @param isExact whether the search was exact or partial
+	 * @param found   the number of search results found
+	 */
+	public void recordQuery(boolean isExact, int found) {
+		(isExact ? exactQueries : partialQueries).increment();
+		results.record(found);
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format
+	 *
+	 * @param out the buffer to write to
+	 * @throws IOException if unable to write
+	 */
+	public void write(Utf8Buffer out) throws IOException {
+		out.write("# HELP woogle_request_seconds Time taken to answer a request by servlet path.\n");
+		out.write("# TYPE woogle_request_seconds histogram\n");
+		for (Map.Entry<String, Histogram> latency : latencies.entrySet()) {
+			String path = latency.getKey().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+			latency.getValue().write("woogle_request_seconds", "servlet=\"" + path + "\"", out);
+		}
+
+		out.write("# HELP woogle_queries_total Queries searched by mode.\n");
+		out.write("# TYPE woogle_queries_total counter\n");
+		writeSample("woogle_queries_total", "mode=\"exact\"", Long.toString(exactQueries.sum()), out);
+		writeSample("woogle_queries_total", "mode=\"partial\"", Long.toString(partialQueries.sum()), out);
+
+		out.write("# HELP woogle_query_results Number of search results found for a query.\n");
+		out.write("# TYPE woogle_query_results histogram\n");
+		results.write("woogle_query_results", "", out);
+
+		writeGauge("woogle_index_words", "Words in the inverted index.", index.numWords(), out);
+		writeGauge("woogle_index_locations", "Locations in the inverted index.", index.numCounts(), out);
+		writeGauge("woogle_index_generation", "Changes made to the inverted index.", index.generation(), out);
+		if (workers != null) {
+			writeGauge("woogle_work_queue_queued", "Tasks waiting for a worker.", workers.numQueued(), out);
+			writeGauge("woogle_work_queue_pending", "Tasks not finished yet.", workers.numPending(), out);
+		}
+
+		out.write("# HELP woogle_cache_lookups_total Search result cache lookups by outcome.\n");
+		out.write("# TYPE woogle_cache_lookups_total counter\n");
+		writeSample("woogle_cache_lookups_total", "result=\"hit\"", Long.toString(cache.hits()), out);
+		writeSample("woogle_cache_lookups_total", "result=\"miss\"", Long.toString(cache.misses()), out);
+		out.write("# HELP woogle_cache_hit_ratio Fraction of search result cache lookups that hit.\n");
+		out.write("# TYPE woogle_cache_hit_ratio gauge\n");
+		writeSample("woogle_cache_hit_ratio", "", Double.toString(cache.hitRatio()), out);
+		writeGauge("woogle_cache_queries", "Queries in the search result cache.", cache.size(), out);
+
+		if (admission != null) {
+			out.write("# HELP woogle_rejected_total Requests turned away by reason.\n");
+			out.write("# TYPE woogle_rejected_total counter\n");
+			writeSample("woogle_rejected_total", "reason=\"busy\"", Long.toString(admission.numShed()), out);
+			writeSample("woogle_rejected_total", "reason=\"client\"", Long.toString(admission.numThrottled()), out);
+		}
+	}
+
+	/**
+	 * Writes a gauge with its help and type lines
+	 *
+	 * @param name  the name of the metric
+	 * @param help  the description of the metric
+	 * @param value the current value
+	 * @param out   the buffer to write to
+	 * @throws IOException if unable to write
+	 */
+	private static void writeGauge(String name, String help, long value, Utf8Buffer out) throws IOException {
+		out.write("# HELP ");
+		out.write(name);
+		out.write(' ');
+		out.write(help);
+		out.write("\n# TYPE ");
+		out.write(name);
+		out.write(" gauge\n");
+		writeSample(name, "", Long.toString(value), out);
+	}
+
+	/**
+	 * Writes a single sample line
+	 *
+	 * @param name   the name of the metric
+	 * @param labels the labels of the sample, or an empty string
+	 * @param value  the value of the sample
+	 * @param out    the buffer to write to
+	 * @throws IOException if unable to write
+	 */
+	private static void writeSample(String name, String labels, String value, Utf8Buffer out) throws IOException {
+		out.write(name);
+		if (!labels.isEmpty()) {
+			out.write('{');
+			out.write(labels);
+			out.write('}');
+		}
+		out.write(' ');
+		out.write(value);
+		out.write('\n');
+	}
+}
@@ -0,0 +1,130 @@
+package edu.usfca.cs272;
+
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.util.function.Consumer;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Turns text into stems one character at a time, so the text never has to be
+ * held in memory as a whole. Words are split and cleaned the same way as
+ * {@link FileStemmer#parse(String)}, and only the word being read is kept.
+ *
+ * @see FileStemmer
+ */
+public class StemStream {
+
+	/**
+	 * The most characters of a word that are kept, the rest is dropped
+	 */
+	private static final int MAX_WORD = 64 * 1024;
+
+	/**
+	 * Whether each character is whitespace to {@link FileStemmer#SPLIT_REGEX}
+	 */
+	private static final boolean[] SPACE = new boolean[Character.MAX_VALUE + 1];
+
+	static {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			SPACE[c] = FileStemmer.SPLIT_REGEX.matcher(String.valueOf((char) c)).matches();
+		}
+	}
+
+	/**
+	 * Whether the word being read only has ASCII characters so far
+	 */
+	private boolean ascii;
+
+	/**
+	 * The stemmer to use
+	 */
+	private final Stemmer stemmer;
+
+	/**
+	 * Receives the stems in order
+	 */
+	private final Consumer<String> stems;
+
+	/**
+	 * The word being read
+	 */
+	private final StringBuilder word;
+
+	/**
+	 * Initializes a stream with the default stemmer for English.
+	 *
+	 * @param stems receives the stems in order
+	 */
+	public StemStream(Consumer<String> stems) {
+		this(new SnowballStemmer(ENGLISH), stems);
+	}
+
+	/**
+	 * Initializes a stream.
+	 *
+	 * @param stemmer the stemmer to use
+	 * @param stems   receives the stems in order
+	 */
+	public StemStream(Stemmer stemmer, Consumer<String> stems) {
+		this.stemmer = stemmer;
+		this.stems = stems;
+		this.word = new StringBuilder();
+		this.ascii = true;
+	}
+
+	/**
+	 * Adds the next character of text
+	 *
+	 * @param c the next character
+	 */
+	public void append(char c) {
+		if (SPACE[c]) {
+			finish();
+		} else if (word.length() < MAX_WORD) {
+			word.append(c);
+			ascii &= c < 0x80;
+		}
+	}
+
+	/**
+	 * Adds every character of the text
+	 *
+	 * @param text the text to add
+	 */
+	public void append(CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			append(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Ends the word being read, if there is one, and passes on its stem
+	 */
+	public void finish() {
+		if (word.isEmpty()) {
+			return;
+		}
+		String cleaned;
+		if (ascii) {
+			// normalizing leaves ASCII alone, so only letters need to be kept
+			int letters = 0;
+			for (int i = 0; i < word.length(); i++) {
+				char c = word.charAt(i);
+				if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))) {
+					word.setCharAt(letters++, c);
+				}
+			}
+			word.setLength(letters);
+			cleaned = word.toString().toLowerCase();
+		} else {
+			cleaned = FileStemmer.clean(word.toString());
+		}
+		word.setLength(0);
+		ascii = true;
+		if (!cleaned.isEmpty()) {
+			stems.accept(stemmer.stem(cleaned).toString());
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Suggests words from the index that start with a prefix, most common first.
+ * The words are kept in a trie where every node already knows the best words
+ * below it, so a suggestion only costs one step per character of the prefix.
+ * The trie is rebuilt from the index when the index changes, but no more than
+ * once every few seconds so a running crawl does not cause a rebuild on every
+ * keystroke. Rebuilds run in the background, and the old trie keeps answering
+ * until the new one is done.
+ */
+public class Suggester {
+
+	/**
+	 * A word and the number of locations it was found in
+	 */
+	public static class Suggestion {
+
+		/**
+		 * The number of locations the word was found in
+		 */
+		private final int documents;
+
+		/**
+		 * The suggested word
+		 */
+		private final String word;
+
+		/**
+		 * Initializes this suggestion.
+		 *
+		 * @param word      the suggested word
+		 * @param documents the number of locations the word was found in
+		 */
+		public Suggestion(String word, int documents) {
+			this.word = word;
+			this.documents = documents;
+		}
+
+		/**
+		 * @return the number of locations the word was found in
+		 */
+		public int getDocuments() {
+			return documents;
+		}
+
+		/**
+		 * @return the suggested word
+		 */
+		public String getWord() {
+			return word;
+		}
+	}
+
+	/**
+	 * A node of the trie
+	 */
+	private static class Node {
+
+		/**
+		 * The nodes for the next character of the prefix
+		 */
+		private final HashMap<Character, Node> children = new HashMap<Character, Node>();
+
+		/**
+		 * The best words starting with the prefix of this node, most common first
+		 */
+		private Suggestion[] best = new Suggestion[0];
+
+		/**
+		 * The best words as a list, built once the trie is done
+		 */
+		private List<Suggestion> view = Collections.emptyList();
+
+		/**
+		 * Adds the word to the best words of this node if it is common enough. Words
+		 * are added in sorted order, so ties stay in alphabetical order.
+		 *
+		 * @param suggestion the word to offer
+		 * @param limit      the most words to keep
+		 */
+		private void offer(Suggestion suggestion, int limit) {
+			int i = best.length;
+			while ((i > 0) && (best[i - 1].getDocuments() < suggestion.getDocuments())) {
+				i--;
+			}
+			if (i >= limit) {
+				return;
+			}
+			int size = Math.min(best.length + 1, limit);
+			Suggestion[] updated = Arrays.copyOf(best, size);
+			System.arraycopy(best, i, updated, i + 1, size - i - 1);
+			updated[i] = suggestion;
+			best = updated;
+		}
+	}
+
+	/**
+	 * The default number of words to suggest
+	 */
+	public static final int DEFAULT_SUGGESTIONS = 10;
+
+	/**
+	 * Rebuilds the tries in the background, shared by every suggester
+	 */
+	private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "Suggester");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The least time between rebuilds in milliseconds
+	 */
+	private static final long REBUILD_MILLIS = 5000;
+
+	/**
+	 * Whether a rebuild is waiting or running, so only one runs at a time
+	 */
+	private final AtomicBoolean building;
+
+	/**
+	 * The index generation the trie was built from
+	 */
+	private volatile long generation;
+
+	/**
+	 * The index to suggest words from
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The number of words to keep at every node
+	 */
+	private final int limit;
+
+	/**
+	 * When the trie was last rebuilt
+	 */
+	private volatile long rebuilt;
+
+	/**
+	 * The root of the trie
+	 */
+	private volatile Node root;
+
+	/**
+	 * Initializes a suggester that returns the default number of words
+	 *
+	 * @param index the index to suggest words from
+	 */
+	public Suggester(ThreadSafeInvertedIndex index) {
+		this(index, DEFAULT_SUGGESTIONS);
+	}
+
+	/**
+	 * Initializes a suggester
+	 *
+	 * @param index the index to suggest words from
+	 * @param limit the most words to suggest
+	 */
+	public Suggester(ThreadSafeInvertedIndex index, int limit) {
+		this.index = index;
+		this.limit = limit;
+		this.root = new Node();
+		this.building = new AtomicBoolean(false);
+		this.generation = -1;
+		this.rebuilt = 0;
+		refresh();
+	}
+
+	/**
+	 * Builds a trie from the words and their document frequencies
+	 *
+	 * @param frequencies the words in sorted order and their document frequencies
+	 * @param limit       the number of words to keep at every node
+	 * @return the root of the trie
+	 */
+	private static Node build(Map<String, Integer> frequencies, int limit) {
+		Node root = new Node();
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(root);
+		for (var entry : frequencies.entrySet()) {
+			Suggestion suggestion = new Suggestion(entry.getKey(), entry.getValue());
+			Node node = root;
+			node.offer(suggestion, limit);
+			String word = entry.getKey();
+			for (int i = 0; i < word.length(); i++) {
+				Node child = node.children.get(word.charAt(i));
+				if (child == null) {
+					child = new Node();
+					node.children.put(word.charAt(i), child);
+					nodes.add(child);
+				}
+				child.offer(suggestion, limit);
+				node = child;
+			}
+		}
+		for (Node node : nodes) {
+			node.view = List.of(node.best);
+			node.best = null;
+		}
+		return root;
+	}
+
+	/**
+	 * @return the most words suggested for a prefix
+	 */
+	public int limit() {
+		return limit;
+	}
+
+	/**
+	 * Rebuilds the trie from the index and swaps it in once it is done
+	 */
+	private void rebuild() {
+		try {
+			long current = index.generation();
+			Node built = build(index.documentFrequencies(), limit);
+			root = built;
+			generation = current;
+			rebuilt = System.currentTimeMillis();
+		} finally {
+			building.set(false);
+		}
+	}
+
+	/**
+	 * Starts a rebuild in the background if the index changed, the trie has not
+	 * been rebuilt recently, and no rebuild is running yet
+	 */
+	private void refresh() {
+		if (index.generation() == generation) {
+			return;
+		}
+		if ((generation >= 0) && (System.currentTimeMillis() - rebuilt < REBUILD_MILLIS)) {
+			return;
+		}
+		if (building.compareAndSet(false, true)) {
+			BUILDER.execute(this::rebuild);
+		}
+	}
+
+	/**
+	 * Returns the most common words that start with the prefix. The words come
+	 * from the last trie that finished building, which may be a few seconds
+	 * behind the index.
+	 *
+	 * @param prefix the start of the word, which should already be cleaned
+	 * @return the most common words first, at most {@link #limit()} of them
+	 */
+	public List<Suggestion> suggest(String prefix) {
+		refresh();
+		Node node = root;
+		for (int i = 0; (node != null) && (i < prefix.length()); i++) {
+			node = node.children.get(prefix.charAt(i));
+		}
+		return node == null ? Collections.emptyList() : node.view;
+	}
+}
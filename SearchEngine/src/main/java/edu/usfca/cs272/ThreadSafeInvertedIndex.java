@@ -3,15 +3,34 @@ package edu.usfca.cs272;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * The data structure that holds the inverted index and counts Map
  */
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 
+	/**
+	 * The number of words each worker serializes at a time when writing the index
+	 * in parallel
+	 */
+	private static final int SHARD_WORDS = 2048;
+
+	/**
+	 * The number of changes made to the index, used to tell when cached search
+	 * results are out of date
+	 */
+	private volatile long generation;
+
+	/**
+	 * When the index last changed in milliseconds since the epoch
+	 */
+	private volatile long lastModified;
+
 	/**
 	 * The multi reader lock to use
 	 */
@@ -23,6 +42,8 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	public ThreadSafeInvertedIndex() {
 		super();
 		lock = new MultiReaderLock();
+		generation = 0;
+		lastModified = System.currentTimeMillis();
 	}
 
 	@Override
@@ -30,6 +51,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.writeLock().lock();
 		try {
 			super.addAll(words, location, start);
+			changed();
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -40,6 +62,18 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.writeLock().lock();
 		try {
 			super.addDistinct(other);
+			changed();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void addPositions(String word, String location, int[] positions, int count) {
+		lock.writeLock().lock();
+		try {
+			super.addPositions(word, location, positions, count);
+			changed();
 		} finally {
 			lock.writeLock().unlock();
 		}
@@ -50,12 +84,31 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		lock.writeLock().lock();
 		try {
 			super.addToIndex(word, location, position);
+			changed();
 		} finally {
 			lock.writeLock().unlock();
 		}
 
 	}
 
+	/**
+	 * Records that the index changed. Must be called while holding the write lock.
+	 */
+	private void changed() {
+		generation++;
+		lastModified = System.currentTimeMillis();
+	}
+
+	@Override
+	public TreeMap<String, Integer> documentFrequencies() {
+		lock.readLock().lock();
+		try {
+			return super.documentFrequencies();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public int fileCounts(String location) {
 		lock.readLock().lock();
@@ -67,6 +120,16 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 
 	}
 
+	/**
+	 * Returns the number of changes made to the index so far. The value only ever
+	 * increases, so two equal values mean the index did not change in between.
+	 *
+	 * @return the current generation of the index
+	 */
+	public long generation() {
+		return generation;
+	}
+
 	@Override
 	public boolean hasCount(String location) {
 		lock.readLock().lock();
@@ -107,6 +170,13 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	/**
+	 * @return when the index last changed in milliseconds since the epoch
+	 */
+	public long lastModified() {
+		return lastModified;
+	}
+
 	@Override
 	public int numCounts() {
 		lock.readLock().lock();
@@ -148,6 +218,59 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public TreeMap<String, Integer> pageCounts(String prefix, String after, int limit) {
+		lock.readLock().lock();
+		try {
+			return super.pageCounts(prefix, after, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public TreeMap<String, TreeMap<String, Integer>> pageWords(String prefix, String after, int limit) {
+		lock.readLock().lock();
+		try {
+			return super.pageWords(prefix, after, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void removeLocation(String location, Collection<String> words) {
+		lock.writeLock().lock();
+		try {
+			super.removeLocation(location, words);
+			changed();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<String> replaceLocation(String location, Collection<String> words, InvertedIndex other) {
+		lock.writeLock().lock();
+		try {
+			List<String> kept = super.replaceLocation(location, words, other);
+			changed();
+			return kept;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<ArrayList<SearchResult>> searchBatch(List<? extends Set<String>> queries, boolean isPartial) {
+		lock.readLock().lock();
+		try {
+			return super.searchBatch(queries, isPartial);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public ArrayList<SearchResult> searchExact(Set<String> queries) {
 		lock.readLock().lock();
@@ -168,6 +291,26 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public int searchTop(Set<String> queries, boolean isPartial, int k, List<SearchResult> top) {
+		lock.readLock().lock();
+		try {
+			return super.searchTop(queries, isPartial, k, top);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ArrayList<String> shardWords(int wordsPerShard) {
+		lock.readLock().lock();
+		try {
+			return super.shardWords(wordsPerShard);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public Map<String, Integer> viewCounts() {
 		lock.readLock().lock();
@@ -228,4 +371,36 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 			lock.readLock().unlock();
 		}
 	}
+
+	/**
+	 * Writes the index by serializing alphabetical ranges of words in parallel and
+	 * joining them in order. The read lock is only held while each range is
+	 * serialized into memory, not while the file is written.
+	 *
+	 * @param output  the path of the file to write to
+	 * @param workers the work queue to use
+	 * @throws IOException if unable to write the inverted index
+	 *
+	 * @see ParallelJsonWriter
+	 */
+	public void writeIndex(Path output, WorkQueue workers) throws IOException {
+		ArrayList<String> starts = shardWords(SHARD_WORDS);
+		ArrayList<ParallelJsonWriter.Shard> shards = new ArrayList<ParallelJsonWriter.Shard>();
+		for (int i = 0; i < starts.size(); i++) {
+			String start = starts.get(i);
+			String end = (i + 1) < starts.size() ? starts.get(i + 1) : null;
+			shards.add(buffer -> writeIndexRange(start, end, buffer));
+		}
+		ParallelJsonWriter.writeObject(shards, workers, output);
+	}
+
+	@Override
+	public void writeIndexRange(String start, String end, Utf8Buffer buffer) throws IOException {
+		lock.readLock().lock();
+		try {
+			super.writeIndexRange(start, end, buffer);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,305 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A reusable byte buffer for writing text as UTF-8 without building
+ * intermediate String objects. If a channel is provided, the buffer is drained
+ * into that channel whenever it fills up. Otherwise the buffer grows as needed
+ * and can be copied to a channel later. The JSON helpers that write into it are
+ * in {@link JsonWriter}, and the web pages stream their HTML through it as well.
+ */
+public class Utf8Buffer {
+
+	/**
+	 * The default number of bytes to buffer before writing to the channel
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	/**
+	 * The bytes written so far that have not been drained yet
+	 */
+	private byte[] bytes;
+
+	/**
+	 * The channel to drain into, or null if this buffer only grows
+	 */
+	private final WritableByteChannel channel;
+
+	/**
+	 * The number of bytes currently in the buffer
+	 */
+	private int size;
+
+	/**
+	 * Scratch space used to format numbers from right to left
+	 */
+	private final byte[] digits;
+
+	/**
+	 * Initializes a growable in-memory buffer with the default capacity
+	 */
+	public Utf8Buffer() {
+		this(null, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes a growable in-memory buffer
+	 *
+	 * @param capacity the initial number of bytes to allocate
+	 */
+	public Utf8Buffer(int capacity) {
+		this(null, capacity);
+	}
+
+	/**
+	 * Initializes a buffer that drains into the channel whenever it is full
+	 *
+	 * @param channel  the channel to write to, or null to only grow in memory
+	 * @param capacity the number of bytes to buffer before writing
+	 */
+	public Utf8Buffer(WritableByteChannel channel, int capacity) {
+		this.channel = channel;
+		this.bytes = new byte[Math.max(capacity, 64)];
+		this.digits = new byte[32];
+		this.size = 0;
+	}
+
+	/**
+	 * Makes sure there is room for the given number of bytes, either by draining
+	 * to the channel or growing the array
+	 *
+	 * @param needed the number of bytes about to be written
+	 * @throws IOException if unable to write to the channel
+	 */
+	private void ensure(int needed) throws IOException {
+		if ((size + needed) <= bytes.length) {
+			return;
+		}
+		if (channel != null) {
+			flush();
+			if (needed <= bytes.length) {
+				return;
+			}
+		}
+		int grown = Math.max(bytes.length * 2, size + needed);
+		byte[] larger = new byte[grown];
+		System.arraycopy(bytes, 0, larger, 0, size);
+		bytes = larger;
+	}
+
+	/**
+	 * Writes everything buffered so far to the channel and empties the buffer.
+	 * Does nothing if there is no channel.
+	 *
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void flush() throws IOException {
+		if ((channel != null) && (size > 0)) {
+			writeTo(channel);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Empties the buffer without writing it anywhere so it can be reused
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+	/**
+	 * @return the number of bytes currently in the buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes bytes that are already encoded. Large arrays are written straight to
+	 * the channel instead of being copied into the buffer first.
+	 *
+	 * @param chunk the bytes to write
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void write(byte[] chunk) throws IOException {
+		if ((channel != null) && (chunk.length > bytes.length)) {
+			flush();
+			ByteBuffer wrapped = ByteBuffer.wrap(chunk);
+			while (wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+			return;
+		}
+		ensure(chunk.length);
+		System.arraycopy(chunk, 0, bytes, size, chunk.length);
+		size += chunk.length;
+	}
+
+	/**
+	 * Writes a single ASCII character
+	 *
+	 * @param c the character to write, must be below 128
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void write(char c) throws IOException {
+		ensure(1);
+		bytes[size++] = (byte) c;
+	}
+
+	/**
+	 * Writes the text encoded as UTF-8. ASCII text is copied directly.
+	 *
+	 * @param text the text to write
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void write(String text) throws IOException {
+		int length = text.length();
+		ensure(length);
+		int i = 0;
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			bytes[size++] = (byte) c;
+			i++;
+		}
+		if (i < length) {
+			writeUtf8(text, i);
+		}
+	}
+
+	/**
+	 * Writes the rest of the text starting at the given index encoded as UTF-8.
+	 * Unpaired surrogates are replaced with a question mark.
+	 *
+	 * @param text  the text to write
+	 * @param start the index of the first character to write
+	 * @throws IOException if unable to write to the channel
+	 */
+	private void writeUtf8(String text, int start) throws IOException {
+		int length = text.length();
+		for (int i = start; i < length; i++) {
+			char c = text.charAt(i);
+			ensure(4);
+			if (c < 0x80) {
+				bytes[size++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[size++] = (byte) (0xC0 | (c >> 6));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && ((i + 1) < length)
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int code = Character.toCodePoint(c, text.charAt(++i));
+				bytes[size++] = (byte) (0xF0 | (code >> 18));
+				bytes[size++] = (byte) (0x80 | ((code >> 12) & 0x3F));
+				bytes[size++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (code & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				bytes[size++] = '?';
+			} else {
+				bytes[size++] = (byte) (0xE0 | (c >> 12));
+				bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Writes the number in decimal without creating a String
+	 *
+	 * @param number the number to write
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void writeInt(int number) throws IOException {
+		writeLong(number);
+	}
+
+	/**
+	 * Writes the number in decimal without creating a String
+	 *
+	 * @param number the number to write
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void writeLong(long number) throws IOException {
+		if (number == Long.MIN_VALUE) {
+			write(Long.toString(number));
+			return;
+		}
+		boolean negative = number < 0;
+		long remaining = negative ? -number : number;
+		int at = digits.length;
+		do {
+			digits[--at] = (byte) ('0' + (remaining % 10));
+			remaining /= 10;
+		} while (remaining > 0);
+		if (negative) {
+			digits[--at] = '-';
+		}
+		int length = digits.length - at;
+		ensure(length);
+		System.arraycopy(digits, at, bytes, size, length);
+		size += length;
+	}
+
+	/**
+	 * Writes the value with eight decimal places, producing the same text as
+	 * {@code String.format("%.8f", value)}
+	 *
+	 * @param value the value to write
+	 * @throws IOException if unable to write to the channel
+	 *
+	 * @see FixedPointFormatter
+	 */
+	public void writeFixed(double value) throws IOException {
+		long scaled = FixedPointFormatter.scale(value);
+		if (scaled < 0) {
+			write(FixedPointFormatter.format(value));
+			return;
+		}
+		int at = digits.length;
+		for (int i = 0; i < FixedPointFormatter.PRECISION; i++) {
+			digits[--at] = (byte) ('0' + (scaled % 10));
+			scaled /= 10;
+		}
+		digits[--at] = '.';
+		do {
+			digits[--at] = (byte) ('0' + (scaled % 10));
+			scaled /= 10;
+		} while (scaled > 0);
+		int length = digits.length - at;
+		ensure(length);
+		System.arraycopy(digits, at, bytes, size, length);
+		size += length;
+	}
+
+	/**
+	 * Copies the bytes in this buffer to the channel without emptying the buffer
+	 *
+	 * @param out the channel to write to
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+		writeTo(out, 0);
+	}
+
+	/**
+	 * Copies the bytes in this buffer starting at the offset to the channel
+	 * without emptying the buffer
+	 *
+	 * @param out    the channel to write to
+	 * @param offset the number of bytes at the start of the buffer to skip
+	 * @throws IOException if unable to write to the channel
+	 */
+	public void writeTo(WritableByteChannel out, int offset) throws IOException {
+		if (offset >= size) {
+			return;
+		}
+		ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, size - offset);
+		while (wrapped.hasRemaining()) {
+			out.write(wrapped);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package edu.usfca.cs272;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The links a crawl has already visited, stored as 64-bit fingerprints of the
+ * normalized link instead of {@link URL} objects. Comparing fingerprints never
+ * resolves host names the way {@link URL#equals(Object)} does, and takes about
+ * 16 bytes per link instead of a few hundred.
+ *
+ * <p>
+ * The fingerprints are kept in open addressing tables split into stripes with
+ * a lock each, so threads adding different links rarely wait for each other.
+ * Very large crawls can ask for a Bloom filter instead, which takes about 10
+ * bits per link and no locks at all, at the cost of skipping about one new link
+ * in a hundred because it looks like one already visited. The filter is never
+ * used unless asked for, since skipped links are pages that are never indexed.
+ */
+public class VisitedSet {
+
+	/**
+	 * One stripe of the exact set
+	 */
+	private static class Stripe {
+
+		/**
+		 * The number of fingerprints in this stripe
+		 */
+		private int size;
+
+		/**
+		 * The fingerprints, with 0 marking an empty slot
+		 */
+		private long[] slots = new long[INITIAL_SLOTS];
+
+		/**
+		 * Adds the fingerprint if it is not already here
+		 *
+		 * @param fingerprint the fingerprint to add, never 0
+		 * @return {@code true} if the fingerprint was added
+		 */
+		private boolean add(long fingerprint) {
+			if ((size + 1) * 4 > slots.length * 3) {
+				grow();
+			}
+			int mask = slots.length - 1;
+			int i = (int) fingerprint & mask;
+			while (slots[i] != 0) {
+				if (slots[i] == fingerprint) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			slots[i] = fingerprint;
+			size++;
+			return true;
+		}
+
+		/**
+		 * Doubles the number of slots and puts every fingerprint back
+		 */
+		private void grow() {
+			long[] old = slots;
+			slots = new long[old.length * 2];
+			int mask = slots.length - 1;
+			for (long fingerprint : old) {
+				if (fingerprint != 0) {
+					int i = (int) fingerprint & mask;
+					while (slots[i] != 0) {
+						i = (i + 1) & mask;
+					}
+					slots[i] = fingerprint;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of bits the Bloom filter uses per expected link, for about one
+	 * false positive in a hundred
+	 */
+	private static final int BLOOM_BITS = 10;
+
+	/**
+	 * The number of bits the Bloom filter sets per link
+	 */
+	private static final int BLOOM_HASHES = 7;
+
+	/**
+	 * The starting value of an FNV-1a hash
+	 */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/**
+	 * The multiplier of an FNV-1a hash
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * The number of slots each stripe starts with
+	 */
+	private static final int INITIAL_SLOTS = 16;
+
+	/**
+	 * The number of stripes, which must be a power of two
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * The bits of the Bloom filter, or null if the set is exact
+	 */
+	private final AtomicLongArray bloom;
+
+	/**
+	 * The number of bits in the Bloom filter
+	 */
+	private final long bloomSize;
+
+	/**
+	 * The stripes of the exact set, or null if a Bloom filter is used
+	 */
+	private final Stripe[] stripes;
+
+	/**
+	 * Initializes an exact set
+	 */
+	public VisitedSet() {
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+		this.bloom = null;
+		this.bloomSize = 0;
+	}
+
+	/**
+	 * Initializes a set backed by a Bloom filter sized for the expected number of
+	 * links. A new link is reported as already visited about once in a hundred
+	 * times as long as no more links than expected are added.
+	 *
+	 * @param expected the number of links expected to be added
+	 */
+	public VisitedSet(long expected) {
+		long words = Math.max((Math.max(expected, 1) * BLOOM_BITS + 63) / 64, 1);
+		if (words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many links for a Bloom filter: " + expected);
+		}
+		this.bloom = new AtomicLongArray((int) words);
+		this.bloomSize = words * 64;
+		this.stripes = null;
+	}
+
+	/**
+	 * Returns an exact set, or a Bloom filter sized for the crawl if one was asked
+	 * for
+	 *
+	 * @param maxCrawl the most links the crawl will visit
+	 * @param bloom    whether to use a Bloom filter, which may skip new links
+	 * @return the set to use for the crawl
+	 */
+	public static VisitedSet forCrawl(int maxCrawl, boolean bloom) {
+		return bloom ? new VisitedSet(maxCrawl) : new VisitedSet();
+	}
+
+	/**
+	 * Adds the link if it has not been visited yet
+	 *
+	 * @param link the link to add
+	 * @return {@code true} if the link was not visited before
+	 */
+	public boolean add(URL link) {
+		return add(fingerprint(link));
+	}
+
+	/**
+	 * Adds the fingerprint if it has not been added yet
+	 *
+	 * @param fingerprint the fingerprint of the normalized link
+	 * @return {@code true} if the fingerprint was not added before
+	 */
+	private boolean add(long fingerprint) {
+		if (bloom != null) {
+			return addBloom(fingerprint);
+		}
+		long key = fingerprint == 0 ? 1 : fingerprint;
+		Stripe stripe = stripes[(int) (key >>> 58) & (STRIPES - 1)];
+		synchronized (stripe) {
+			return stripe.add(key);
+		}
+	}
+
+	/**
+	 * Sets the bits of the fingerprint in the Bloom filter
+	 *
+	 * @param fingerprint the fingerprint of the normalized link
+	 * @return {@code true} if any of the bits were not set yet
+	 */
+	private boolean addBloom(long fingerprint) {
+		long step = mix(fingerprint) | 1;
+		boolean added = false;
+		for (int i = 0; i < BLOOM_HASHES; i++) {
+			long bit = Long.remainderUnsigned(fingerprint + i * step, bloomSize);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			if ((bloom.get(word) & mask) == 0) {
+				long old = bloom.getAndUpdate(word, value -> value | mask);
+				added |= (old & mask) == 0;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Returns the 64-bit fingerprint of the link, which is FNV-1a over the
+	 * normalized link followed by a final mix so every bit depends on the whole
+	 * link. Links that {@link URL#equals} would treat as the same get the same
+	 * fingerprint without looking up the host: the scheme and host are lower
+	 * case, the default port is always included, and an empty path is "/".
+	 *
+	 * @param link the link to fingerprint
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(URL link) {
+		int port = link.getPort() < 0 ? link.getDefaultPort() : link.getPort();
+		String file = link.getFile().isEmpty() ? "/" : link.getFile();
+		long hash = FNV_OFFSET;
+		hash = update(hash, link.getProtocol(), true);
+		hash = update(hash, "://", false);
+		hash = update(hash, link.getHost(), true);
+		hash = (hash ^ ':') * FNV_PRIME;
+		hash = (hash ^ port) * FNV_PRIME;
+		hash = update(hash, file, false);
+		return mix(hash);
+	}
+
+	/**
+	 * The final mix of MurmurHash3
+	 *
+	 * @param hash the value to mix
+	 * @return the mixed value
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Adds the characters of the text to an FNV-1a hash
+	 *
+	 * @param hash  the hash so far
+	 * @param text  the text to add
+	 * @param lower whether to add the characters in lower case
+	 * @return the updated hash
+	 */
+	private static long update(long hash, String text, boolean lower) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			hash ^= lower ? Character.toLowerCase(c) : c;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+}
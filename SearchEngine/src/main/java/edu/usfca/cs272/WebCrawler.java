@@ -1,23 +1,297 @@
 package edu.usfca.cs272;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  The Web Crawler that crawls websites, cleans their html and adds the words in an inverted index
  */
 public class WebCrawler {
 
+	/**
+	 * A page being read, which queues its links and stems its words as the
+	 * scanner finds them and keeps nothing else of the html
+	 */
+	private class Page implements HtmlScanner.Listener {
+
+		/**
+		 * The link of the page prepared for resolving the links on it, or null
+		 * until the first link is found
+		 */
+		private LinkFinder.Base base;
+
+		/**
+		 * Whether only whitespace was read
+		 */
+		private boolean blank;
+
+		/**
+		 * The number of links followed from the seed to find the page
+		 */
+		private final int depth;
+
+		/**
+		 * The hash of the stems added so far
+		 */
+		private long hash;
+
+		/**
+		 * The link the page was fetched from
+		 */
+		private final URL link;
+
+		/**
+		 * The links found on the page for the history, or null if there is no
+		 * history
+		 */
+		private final LinkedHashSet<String> links;
+
+		/**
+		 * The words of the page
+		 */
+		private final InvertedIndex local;
+
+		/**
+		 * The link the words are added under
+		 */
+		private final String location;
+
+		/**
+		 * The position of the last word added
+		 */
+		private int position;
+
+		/**
+		 * The version the page was last indexed at, or null if the page is not
+		 * fetched conditionally
+		 */
+		private final CrawlHistory.Version previous;
+
+		/**
+		 * The stems in order for the journal, or null if there is no journal
+		 */
+		private final ArrayList<String> stems;
+
+		/**
+		 * Splits the text into stems
+		 */
+		private final StemStream words;
+
+		/**
+		 * Initializes the page
+		 *
+		 * @param link The link the page was fetched from
+		 * @param depth The number of links followed from the seed to find the page
+		 * @param previous The version the page was last indexed at, or null
+		 */
+		public Page(URL link, int depth, CrawlHistory.Version previous) {
+			this.link = link;
+			this.depth = depth;
+			this.previous = previous;
+			this.location = link.toString();
+			this.local = new InvertedIndex();
+			this.stems = journal != null ? new ArrayList<String>() : null;
+			this.links = history != null ? new LinkedHashSet<String>() : null;
+			this.words = new StemStream(this::add);
+			this.blank = true;
+			this.hash = CrawlHistory.EMPTY_HASH;
+		}
+
+		/**
+		 * Adds the next stem of the page
+		 *
+		 * @param stem The stem to add
+		 */
+		private void add(String stem) {
+			local.addToIndex(stem, location, ++position);
+			hash = CrawlHistory.hash(hash, stem);
+			if (stems != null) {
+				stems.add(stem);
+			}
+		}
+
+		/**
+		 * Adds the words of the page to the index in place of its last version if
+		 * it was read and changed, or counts it as failed if it was not read. A
+		 * page the server says has not changed is left as it is in the index, and
+		 * the links it had last time are crawled instead. A page that was indexed
+		 * before but is now missing or no longer html is removed from the index,
+		 * while a page that could not be reached at all is kept.
+		 *
+		 * @param status The status code of the last response, or -1 if there was none
+		 * @param etag The ETag header of the last response, or null
+		 * @param lastModified The Last-Modified header of the last response, or null
+		 * @param read Whether the page was fetched as HTML and read
+		 */
+		public void finish(int status, String etag, String lastModified, boolean read) {
+			if ((status == 304) && (previous != null)) {
+				unchanged.incrementAndGet();
+				for (String found : previous.getLinks()) {
+					try {
+						follow(new URL(found));
+					} catch (MalformedURLException e) {
+						continue;
+					}
+				}
+			} else if (read && !blank) {
+				List<String> indexed;
+				if ((previous != null) && (previous.getHash() == hash)) {
+					unchanged.incrementAndGet();
+					indexed = previous.getWords();
+				} else {
+					indexed = index.replaceLocation(location, previous != null ? previous.getWords() : null, local);
+					fetched.incrementAndGet();
+				}
+				if (history != null) {
+					history.put(location, new CrawlHistory.Version(etag, lastModified, hash, links, indexed));
+				}
+				if (journal != null) {
+					journal.page(link, stems);
+				}
+			} else {
+				failed.incrementAndGet();
+				// the server answered, so the page really is gone or not html anymore
+				if ((previous != null) && (status >= 200) && (status < 500)) {
+					index.removeLocation(location, previous.getWords());
+					history.remove(location);
+				}
+				if (journal != null) {
+					journal.failed(link);
+				}
+			}
+		}
+
+		@Override
+		public void link(String href) {
+			if (base == null) {
+				base = new LinkFinder.Base(link);
+			}
+			URL found = LinkFinder.convertUrl(base, href);
+			if ((found == null) || !LinkFinder.isHttp(found)) {
+				return;
+			}
+			if (links != null) {
+				links.add(found.toString());
+			}
+			follow(found);
+		}
+
+		/**
+		 * Crawls a link found on the page unless it was already crawled or the
+		 * crawl is full
+		 *
+		 * @param found The link to crawl
+		 */
+		private void follow(URL found) {
+			if ((discovered.get() < maxCrawl) && visited.add(found) && reserve()) {
+				crawl(found, depth + 1);
+			}
+		}
+
+		/**
+		 * Reads the html of the page
+		 *
+		 * @param html The html to read
+		 * @throws IOException if unable to read the html
+		 */
+		public void read(Reader html) throws IOException {
+			HtmlScanner scanner = new HtmlScanner(this);
+			scanner.scan(html);
+			words.finish();
+			blank = scanner.isBlank();
+		}
+
+		@Override
+		public void text(char c) {
+			words.append(c);
+		}
+	}
+
+	/**
+	 * The task that parses a page that was already fetched in the background
+	 */
+	private class ParseTask implements Runnable {
+
+		/**
+		 * The number of links followed from the seed to find the page
+		 */
+		private final int depth;
+
+		/**
+		 * The link the page was fetched from
+		 */
+		private final URL link;
+
+		/**
+		 * The version the page was last indexed at, or null
+		 */
+		private final CrawlHistory.Version previous;
+
+		/**
+		 * The last response, or null if the page could not be fetched
+		 */
+		private final HttpResponse<String> response;
+
+		/**
+		 * Initializes the task
+		 *
+		 * @param link The link the page was fetched from
+		 * @param depth The number of links followed from the seed to find the page
+		 * @param previous The version the page was last indexed at, or null
+		 * @param response The last response, with the html of the page as its body
+		 */
+		public ParseTask(URL link, int depth, CrawlHistory.Version previous, HttpResponse<String> response) {
+			this.link = link;
+			this.depth = depth;
+			this.previous = previous;
+			this.response = response;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Page page = new Page(link, depth, previous);
+				if (response == null) {
+					page.finish(-1, null, null, false);
+					return;
+				}
+				boolean read = response.statusCode() == 200;
+				if (read) {
+					try {
+						page.read(new StringReader(response.body()));
+					} catch (IOException e) {
+						read = false;
+					}
+				}
+				page.finish(response.statusCode(), response.headers().firstValue("ETag").orElse(null),
+						response.headers().firstValue("Last-Modified").orElse(null), read);
+			} finally {
+				finished();
+			}
+		}
+	}
+
 	/**
 	 * The task that creates tasks recursively to crawl pages, find links, and strip html to add to the index
 	 */
 	private class Task implements Runnable {
 
 		/**
-		 * The index to use and to add to
+		 * The number of links followed from the seed to find the link
 		 */
-		private final ThreadSafeInvertedIndex index;
+		private final int depth;
 
 		/**
 		 * The link to add to the index and to crawl
@@ -26,76 +300,145 @@ public class WebCrawler {
 
 		/**
 		 * Initializes the task to start the webcrawler
-		 * @param link The query line
-		 * @param index The index to write to
-		 * @param linksCrawled The list of links that have been crawled
+		 * @param link The link to fetch
+		 * @param depth The number of links followed from the seed to find the link
 		 */
-		public Task(URL link, ThreadSafeInvertedIndex index, HashSet<URL> linksCrawled) {
+		public Task(URL link, int depth) {
 			this.link = link;
-			this.index = index;
-			synchronized (linksCrawled) {
-				linksCrawled.add(link);
-			}
-
+			this.depth = depth;
 		}
 
 		@Override
 		public void run() {
-			String html = HtmlFetcher.fetch(link, 3);
-			InvertedIndex localIndex = new InvertedIndex();
-			if (html != null) {
-				html = HtmlCleaner.stripBlockElements(html);
-				ArrayList<URL> links = LinkFinder.listUrls(link, html);
-				synchronized (linksCrawled) {
-					for (URL subLink : links) {
-						if (linksCrawled.size() >= maxCrawl) {
-							break;
-						}
-						if (!linksCrawled.contains(subLink)) {
-							Task task = new Task(subLink, index, linksCrawled);
-							workers.execute(task);
-						}
-					}
+			try {
+				CrawlHistory.Version previous = previous(link);
+				Page page = new Page(link, depth, previous);
+				Map<String, List<String>> headers;
+				try {
+					headers = HtmlFetcher.fetch(link, 3, conditions(previous), page::read);
+				} catch (IOException e) {
+					headers = null;
+				} finally {
+					frontier.finished(link);
 				}
-				ArrayList<String> wordsInHtml = FileStemmer.listStems(html);
-				localIndex.addAll(wordsInHtml, link.toString(), 1);
-				index.addDistinct(localIndex);
+				if (headers == null) {
+					page.finish(-1, null, null, false);
+				} else {
+					int status = HtmlFetcher.getStatusCode(headers);
+					page.finish(status, HttpsFetcher.getHeader(headers, "ETag"),
+							HttpsFetcher.getHeader(headers, "Last-Modified"),
+							(status == 200) && HtmlFetcher.isHtml(headers));
+				}
+			} finally {
+				finished();
 			}
 		}
 	}
 
+	/**
+	 * The fetcher to use instead of blocking fetches, or null to fetch on the work queue
+	 */
+	private final AsyncFetcher fetcher;
+
+	/**
+	 * The number of pages that could not be fetched as HTML
+	 */
+	private final AtomicInteger failed;
+
+	/**
+	 * The number of pages fetched and added to the index
+	 */
+	private final AtomicInteger fetched;
+
+	/**
+	 * The versions of pages already indexed, or null if they are not kept
+	 */
+	private final CrawlHistory history;
+
+	/**
+	 * The journal the crawl is checkpointed to, or null if it is not
+	 */
+	private CrawlJournal journal;
+
+	/**
+	 * The links waiting for their host to allow another fetch
+	 */
+	private final CrawlFrontier frontier;
+
 	/**
 	 * The index to use for the cleaned html
 	 */
 	private final ThreadSafeInvertedIndex index;
 
 	/**
-	 * The ArrayList of all links crawled
+	 * The number of links crawled or waiting to be crawled
 	 */
-	private final HashSet<URL> linksCrawled;
+	private final AtomicInteger discovered;
 
 	/**
 	 * The maximum amount of links to crawl
 	 */
 	private final int maxCrawl;
 
+	/**
+	 * The number of pages queued or being fetched by this crawler
+	 */
+	private final AtomicInteger pending;
+
+	/**
+	 * The number of pages that were fetched again but had not changed
+	 */
+	private final AtomicInteger unchanged;
+
+	/**
+	 * The links a resumed journal had not finished, until they are queued again
+	 */
+	private LinkedHashMap<String, Integer> unfinished;
+
+	/**
+	 * The links crawled so far, including ones not fetched yet
+	 */
+	private final VisitedSet visited;
+
 	/**
 	 * The number of workers/threads to use
 	 */
 	private final WorkQueue workers;
 
 	/**
-	 * Initializes the WebCrawler
+	 * Initializes the WebCrawler. If a fetcher is given, pages are fetched in the
+	 * background by it and the work queue is only used to parse them. If a
+	 * history is given, pages in it are fetched conditionally and only indexed
+	 * again if they changed, and every page indexed is recorded in it. The
+	 * visited links are kept exactly unless a Bloom filter is asked for, which
+	 * takes far less memory on very large crawls but skips about one new link in
+	 * a hundred.
 	 *
 	 * @param workers The work queue to use
 	 * @param index The index to add to
 	 * @param maxCrawl Max number of links to crawl
+	 * @param fetcher The fetcher to use, or null to fetch on the work queue
+	 * @param maxPerHost The most fetches from one host at once
+	 * @param delayMillis The least time between the start of two fetches from one host
+	 * @param history The versions of pages already indexed, or null to not keep them
+	 * @param bloom Whether to keep the visited links in a Bloom filter
+	 *
+	 * @see VisitedSet#forCrawl(int, boolean)
 	 */
-	public WebCrawler(WorkQueue workers, ThreadSafeInvertedIndex index, int maxCrawl) {
+	public WebCrawler(WorkQueue workers, ThreadSafeInvertedIndex index, int maxCrawl, AsyncFetcher fetcher,
+			int maxPerHost, long delayMillis, CrawlHistory history, boolean bloom) {
 		this.workers = workers;
+		this.history = history;
+		this.fetcher = fetcher;
+		this.frontier = new CrawlFrontier(this::fetch, maxPerHost, delayMillis);
 		this.index = index;
 		this.maxCrawl = maxCrawl;
-		this.linksCrawled = new HashSet<URL>();
+		this.visited = VisitedSet.forCrawl(maxCrawl, bloom);
+		this.discovered = new AtomicInteger();
+		this.fetched = new AtomicInteger();
+		this.failed = new AtomicInteger();
+		this.unchanged = new AtomicInteger();
+		this.pending = new AtomicInteger();
 	}
 
 	/**
@@ -104,8 +447,249 @@ public class WebCrawler {
 	 * @param link The URL to use to crawl and to build the index
 	**/
 	public void buildIndex(URL link) {
-		Task task = new Task(link, index, linksCrawled);
-		workers.execute(task);
-		workers.finish();
+		start(link);
+		await();
+	}
+
+	/**
+	 * Builds the inverted index while checkpointing the crawl to a journal. When
+	 * resuming, the pages already in the journal are added to the index without
+	 * fetching them again and the crawl carries on with the links that were not
+	 * done yet. The seed is only used if there is nothing to resume.
+	 *
+	 * @param link The URL to start crawling from
+	 * @param path The path of the journal
+	 * @param resume Whether to resume from the journal if it exists
+	 * @throws IOException if unable to read or write the journal
+	 */
+	public void buildIndex(URL link, Path path, boolean resume) throws IOException {
+		boolean resuming = resume && Files.exists(path);
+		if (resuming) {
+			resume(path);
+		}
+		try (CrawlJournal opened = new CrawlJournal(path, resuming)) {
+			journal = opened;
+			if (discovered.get() == 0) {
+				start(link);
+			} else {
+				requeue();
+			}
+			await();
+		} finally {
+			journal = null;
+		}
+	}
+
+	/**
+	 * Waits until every page this crawler queued has been fetched or has failed
+	 */
+	private void await() {
+		try {
+			synchronized (this) {
+				while (pending.get() > 0) {
+					this.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the headers that make a fetch conditional on the page having changed
+	 *
+	 * @param previous The version the page was last indexed at, or null
+	 * @return the conditions to send, which are empty if there is no version
+	 */
+	private static Map<String, String> conditions(CrawlHistory.Version previous) {
+		return previous == null ? Map.of() : previous.conditions();
+	}
+
+	/**
+	 * Adds a link that was just marked as visited to the frontier
+	 *
+	 * @param link The link to crawl
+	 * @param depth The number of links followed from the seed to find the link
+	 */
+	private void crawl(URL link, int depth) {
+		if (journal != null) {
+			journal.queued(link, depth);
+		}
+		pending.incrementAndGet();
+		frontier.add(link, depth);
+	}
+
+	/**
+	 * Fetches a link once the frontier allows it, either on the work queue or in
+	 * the background
+	 *
+	 * @param link The link to fetch
+	 * @param depth The number of links followed from the seed to find the link
+	 */
+	private void fetch(URL link, int depth) {
+		if (fetcher == null) {
+			workers.execute(new Task(link, depth));
+		} else {
+			CrawlHistory.Version previous = previous(link);
+			fetcher.fetch(link, 3, conditions(previous)).thenAccept(response -> {
+				frontier.finished(link);
+				workers.execute(new ParseTask(link, depth, previous, response));
+			});
+		}
+	}
+
+	/**
+	 * Marks one page as done, and wakes up anyone waiting for the crawl to finish
+	 */
+	private void finished() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return true once every page this crawler queued has been fetched or has
+	 *         failed
+	 */
+	public boolean isFinished() {
+		return pending.get() == 0;
+	}
+
+	/**
+	 * @return the number of links found so far, including ones not fetched yet
+	 */
+	public int numDiscovered() {
+		return discovered.get();
+	}
+
+	/**
+	 * @return the number of pages that could not be fetched as HTML
+	 */
+	public int numFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of pages fetched and added to the index
+	 */
+	public int numFetched() {
+		return fetched.get();
+	}
+
+	/**
+	 * @return the number of pages queued or being fetched right now
+	 */
+	public int numQueued() {
+		return pending.get();
+	}
+
+	/**
+	 * @return the number of pages fetched again that had not changed, and were
+	 *         left as they were in the index
+	 */
+	public int numUnchanged() {
+		return unchanged.get();
+	}
+
+	/**
+	 * Returns the version a page was last indexed at, if it should be fetched
+	 * conditionally. A journaled crawl always fetches every page, since the
+	 * journal has to hold the stems of every page to rebuild the index.
+	 *
+	 * @param link The link of the page
+	 * @return the last version of the page, or null to fetch it in full
+	 */
+	private CrawlHistory.Version previous(URL link) {
+		if ((history == null) || (journal != null)) {
+			return null;
+		}
+		return history.get(link.toString());
+	}
+
+	/**
+	 * Puts the links left over from a resumed journal back in the frontier
+	 */
+	private void requeue() {
+		LinkedHashMap<String, Integer> left = unfinished;
+		unfinished = null;
+		if (left == null) {
+			return;
+		}
+		for (var entry : left.entrySet()) {
+			try {
+				pending.incrementAndGet();
+				frontier.add(new URL(entry.getKey()), entry.getValue());
+			} catch (MalformedURLException e) {
+				finished();
+			}
+		}
+	}
+
+	/**
+	 * Takes one of the links the crawl is allowed to visit
+	 *
+	 * @return true if the crawl has not reached its limit yet
+	 */
+	private boolean reserve() {
+		int count;
+		do {
+			count = discovered.get();
+			if (count >= maxCrawl) {
+				return false;
+			}
+		} while (!discovered.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * Replays the journal, adding the finished pages to the index and keeping the
+	 * links that were not finished for {@link #requeue()}
+	 *
+	 * @param path The path of the journal
+	 * @throws IOException if unable to read the journal
+	 */
+	private void resume(Path path) throws IOException {
+		LinkedHashMap<String, Integer> left = new LinkedHashMap<String, Integer>();
+		InvertedIndex restored = new InvertedIndex();
+		CrawlJournal.replay(path, new CrawlJournal.Replay() {
+			@Override
+			public void failed(String link) {
+				if (left.remove(link) != null) {
+					WebCrawler.this.failed.incrementAndGet();
+				}
+			}
+
+			@Override
+			public void page(String link, List<String> stems) {
+				if (left.remove(link) != null) {
+					restored.addAll(stems, link, 1);
+					fetched.incrementAndGet();
+				}
+			}
+
+			@Override
+			public void queued(URL link, int depth) {
+				if (visited.add(link)) {
+					discovered.incrementAndGet();
+					left.put(link.toString(), depth);
+				}
+			}
+		});
+		index.addDistinct(restored);
+		unfinished = left;
+	}
+
+	/**
+	 * Starts crawling from the link without waiting for the crawl to finish. Pages
+	 * are added to the index as they are fetched.
+	 *
+	 * @param link The URL to start crawling from
+	 */
+	public void start(URL link) {
+		visited.add(link);
+		discovered.incrementAndGet();
+		crawl(link, 0);
 	}
 }
@@ -188,6 +188,27 @@ public class WorkQueue {
 		}
 	}
 
+	/**
+	 * Returns the number of tasks that have been added but not finished, including
+	 * the ones being worked on right now.
+	 *
+	 * @return number of unfinished tasks
+	 */
+	public synchronized int numPending() {
+		return pending;
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a worker thread.
+	 *
+	 * @return number of tasks not started yet
+	 */
+	public int numQueued() {
+		synchronized (tasks) {
+			return tasks.size();
+		}
+	}
+
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work (or tasks) will not be
 	 * finished, but threads in-progress will not be interrupted.
@@ -0,0 +1,85 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import edu.usfca.cs272.InvertedIndex.SearchResult;
+
+/**
+ * Tests the layout of binary search results.
+ */
+public class BinaryWriterTest {
+
+	/**
+	 * Reads a string the way {@link BinaryWriter} writes it
+	 *
+	 * @param in the stream to read from
+	 * @return the string
+	 * @throws IOException if unable to read
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Every field is written in the documented order, and each location is
+	 * written once and then referred to by its position.
+	 *
+	 * @throws IOException if unable to write or read the file
+	 */
+	@Test
+	public void testLayout() throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		index.addAll(List.of("apple", "banana", "apple"), "a.txt", 1);
+		index.addAll(List.of("banana", "cherry"), "b/ü.txt", 1);
+
+		TreeMap<String, List<SearchResult>> rank = new TreeMap<String, List<SearchResult>>();
+		rank.put("apple", index.searchExact(Set.of("apple")));
+		rank.put("banana", index.searchExact(Set.of("banana")));
+		rank.put("none", new ArrayList<SearchResult>());
+
+		Path output = Files.createTempFile("results", ".bin");
+		try {
+			BinaryWriter.writeSearchResult(rank, output);
+			try (InputStream file = Files.newInputStream(output); DataInputStream in = new DataInputStream(file)) {
+				assertEquals(BinaryWriter.MAGIC, in.readInt());
+				assertEquals(BinaryWriter.VERSION, in.readInt());
+
+				List<String> locations = new ArrayList<String>();
+				int numLocations = in.readInt();
+				for (int i = 0; i < numLocations; i++) {
+					locations.add(readString(in));
+				}
+				assertEquals(List.of("a.txt", "b/ü.txt"), locations);
+
+				assertEquals(rank.size(), in.readInt());
+				for (var entry : rank.entrySet()) {
+					assertEquals(entry.getKey(), readString(in));
+					assertEquals(entry.getValue().size(), in.readInt());
+					for (SearchResult result : entry.getValue()) {
+						assertEquals(result.getLocationOfFile(), locations.get(in.readInt()));
+						assertEquals(result.getNumMatches(), in.readInt());
+						assertEquals(result.getScore(), in.readDouble());
+					}
+				}
+				assertEquals(-1, in.read());
+			}
+		} finally {
+			Files.delete(output);
+		}
+	}
+}
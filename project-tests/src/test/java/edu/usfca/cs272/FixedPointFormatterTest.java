@@ -0,0 +1,109 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that scores are formatted exactly like {@code String.format("%.8f")}
+ * by both {@link FixedPointFormatter} and {@link Utf8Buffer#writeFixed(double)}.
+ */
+public class FixedPointFormatterTest {
+
+	/**
+	 * Checks that every way of formatting the value gives the same text as
+	 * {@link String#format}
+	 *
+	 * @param value the value to check
+	 * @throws IOException if unable to write the buffer
+	 */
+	private static void check(double value) throws IOException {
+		String expected = String.format("%.8f", value);
+		assertEquals(expected, FixedPointFormatter.format(value), "format(" + value + ")");
+
+		Utf8Buffer buffer = new Utf8Buffer(64);
+		buffer.writeFixed(value);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		buffer.writeTo(Channels.newChannel(out));
+		assertEquals(expected, out.toString(UTF_8), "writeFixed(" + value + ")");
+
+		long scaled = FixedPointFormatter.scale(value);
+		if (scaled >= 0) {
+			assertEquals(expected.replace(".", ""), String.format("%09d", scaled), "scale(" + value + ")");
+		}
+	}
+
+	/**
+	 * Random scores between 0 and 1, the range every score is in.
+	 *
+	 * @throws IOException if unable to write the buffer
+	 */
+	@Test
+	public void testRandom() throws IOException {
+		Random random = new Random(29);
+		for (int i = 0; i < 100_000; i++) {
+			check(random.nextDouble());
+		}
+	}
+
+	/**
+	 * Scores that are the ratio of two small counts, as search results have.
+	 *
+	 * @throws IOException if unable to write the buffer
+	 */
+	@Test
+	public void testRatios() throws IOException {
+		for (int count = 1; count <= 300; count++) {
+			for (int matches = 0; matches <= count; matches++) {
+				check((double) matches / count);
+			}
+		}
+	}
+
+	/**
+	 * Values whose shortest decimal form ends in a 5 right after the eighth
+	 * decimal place, which {@link java.util.Formatter} rounds up.
+	 *
+	 * @throws IOException if unable to write the buffer
+	 */
+	@Test
+	public void testTies() throws IOException {
+		Random random = new Random(5);
+		for (int i = 0; i < 10_000; i++) {
+			check(Double.parseDouble(random.nextInt(10) + "." + String.format("%08d", random.nextInt(100_000_000)) + "5"));
+		}
+		check(0.5);
+		check(0.125);
+		check(0.000000005);
+		check(0.000000015);
+		check(9.999999995);
+	}
+
+	/**
+	 * Values the fast path leaves to {@link String#format}.
+	 *
+	 * @throws IOException if unable to write the buffer
+	 */
+	@Test
+	public void testFallback() throws IOException {
+		Random random = new Random(10);
+		for (int i = 0; i < 1_000; i++) {
+			check(10 + random.nextDouble() * 1e6);
+			check(-random.nextDouble());
+		}
+		check(10);
+		check(-0.0);
+		check(0.0);
+		check(Double.MIN_VALUE);
+		check(Double.MAX_VALUE);
+		check(Double.NaN);
+		check(Double.POSITIVE_INFINITY);
+		check(Double.NEGATIVE_INFINITY);
+	}
+}
@@ -0,0 +1,297 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP/1.1 server on the loopback address for tests. Connections are
+ * kept open between requests, and every response is written exactly as the
+ * responder builds it, so tests can also send broken framing or drop a
+ * connection on purpose.
+ */
+public class FixtureServer implements AutoCloseable {
+
+	/**
+	 * A request read by the server
+	 */
+	public static class Request {
+
+		/**
+		 * The request headers with lower case names
+		 */
+		private final Map<String, String> headers;
+
+		/**
+		 * The number of requests read on the same connection before this one
+		 */
+		private final int number;
+
+		/**
+		 * The path and query that was asked for
+		 */
+		private final String path;
+
+		/**
+		 * Initializes a request.
+		 *
+		 * @param path    the path and query that was asked for
+		 * @param headers the request headers with lower case names
+		 * @param number  the number of requests read on the same connection before
+		 *                this one
+		 */
+		public Request(String path, Map<String, String> headers, int number) {
+			this.path = path;
+			this.headers = headers;
+			this.number = number;
+		}
+
+		/**
+		 * @param name the header name in any case
+		 * @return the header value or null if it was not sent
+		 */
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase(Locale.ROOT));
+		}
+
+		/**
+		 * @return the number of requests read on the same connection before this
+		 *         one
+		 */
+		public int getNumber() {
+			return number;
+		}
+
+		/**
+		 * @return the path and query that was asked for
+		 */
+		public String getPath() {
+			return path;
+		}
+	}
+
+	/**
+	 * Builds the responses of the server
+	 */
+	@FunctionalInterface
+	public interface Responder {
+
+		/**
+		 * Returns the whole response to write, headers included
+		 *
+		 * @param request the request to answer
+		 * @return the response bytes, or null to close the connection without
+		 *         answering
+		 * @throws IOException if unable to build the response
+		 */
+		byte[] respond(Request request) throws IOException;
+	}
+
+	/**
+	 * The number of connections accepted so far
+	 */
+	private final AtomicInteger connections;
+
+	/**
+	 * The number of requests read so far
+	 */
+	private final AtomicInteger requests;
+
+	/**
+	 * Builds the responses
+	 */
+	private final Responder responder;
+
+	/**
+	 * The listening socket
+	 */
+	private final ServerSocket server;
+
+	/**
+	 * Starts a server on a free port of the loopback address
+	 *
+	 * @param responder builds the responses
+	 * @throws IOException if unable to listen
+	 */
+	public FixtureServer(Responder responder) throws IOException {
+		this.responder = responder;
+		this.connections = new AtomicInteger();
+		this.requests = new AtomicInteger();
+		this.server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "FixtureServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Accepts connections until the server is closed
+	 */
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				Thread thread = new Thread(() -> serve(socket), "FixtureServer");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Returns a response with a content length
+	 *
+	 * @param status the status code and reason, like "200 OK"
+	 * @param type   the content type, or null for none
+	 * @param body   the body
+	 * @return the response bytes
+	 */
+	public static byte[] response(String status, String type, String body) {
+		byte[] bytes = body.getBytes(UTF_8);
+		return response(status, type, "Content-Length: " + bytes.length, bytes);
+	}
+
+	/**
+	 * Returns a response with whatever framing header is given
+	 *
+	 * @param status  the status code and reason, like "200 OK"
+	 * @param type    the content type, or null for none
+	 * @param framing the header lines that frame the body, without the last line
+	 *                break
+	 * @param body    the body exactly as it is sent
+	 * @return the response bytes
+	 */
+	public static byte[] response(String status, String type, String framing, byte[] body) {
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(status).append("\r\n");
+		if (type != null) {
+			head.append("Content-Type: ").append(type).append("\r\n");
+		}
+		head.append(framing).append("\r\n\r\n");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes(head.toString().getBytes(UTF_8));
+		out.writeBytes(body);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns a response with a chunked body
+	 *
+	 * @param type   the content type
+	 * @param body   the body
+	 * @param chunk  the size of each chunk
+	 * @return the response bytes
+	 */
+	public static byte[] chunked(String type, String body, int chunk) {
+		byte[] bytes = body.getBytes(UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < bytes.length; i += chunk) {
+			int length = Math.min(chunk, bytes.length - i);
+			out.writeBytes((Integer.toHexString(length) + "\r\n").getBytes(UTF_8));
+			out.write(bytes, i, length);
+			out.writeBytes("\r\n".getBytes(UTF_8));
+		}
+		out.writeBytes("0\r\n\r\n".getBytes(UTF_8));
+		return response("200 OK", type, "Transfer-Encoding: chunked", out.toByteArray());
+	}
+
+	/**
+	 * @return the number of connections accepted so far
+	 */
+	public int numConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return the number of requests read so far
+	 */
+	public int numRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Reads one line of the request without its line break
+	 *
+	 * @param in the stream to read from
+	 * @return the line, or null if the connection closed first
+	 * @throws IOException if unable to read
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while (((c = in.read()) != -1) && (c != '\n')) {
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return (c == -1) && line.isEmpty() ? null : line.toString();
+	}
+
+	/**
+	 * Answers the requests on one connection until it closes
+	 *
+	 * @param socket the connection
+	 */
+	private void serve(Socket socket) {
+		try (socket) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			for (int number = 0;; number++) {
+				String line = readLine(in);
+				if (line == null) {
+					return;
+				}
+				String[] parts = line.split(" ");
+				Map<String, String> headers = new HashMap<String, String>();
+				String header;
+				while (((header = readLine(in)) != null) && !header.isEmpty()) {
+					int colon = header.indexOf(':');
+					if (colon > 0) {
+						headers.put(header.substring(0, colon).strip().toLowerCase(Locale.ROOT),
+								header.substring(colon + 1).strip());
+					}
+				}
+				requests.incrementAndGet();
+				byte[] response = responder.respond(new Request(parts.length > 1 ? parts[1] : "/", headers, number));
+				if (response == null) {
+					return;
+				}
+				out.write(response);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the client went away
+		}
+	}
+
+	/**
+	 * Returns the link to a path on this server
+	 *
+	 * @param path the path starting with a slash
+	 * @return the link
+	 * @throws MalformedURLException if the path is not valid
+	 */
+	public URL url(String path) throws MalformedURLException {
+		return new URL("http://127.0.0.1:" + server.getLocalPort() + path);
+	}
+}
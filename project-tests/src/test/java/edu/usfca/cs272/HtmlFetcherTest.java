@@ -0,0 +1,161 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.ProtocolException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests fetching pages over kept-alive connections from a local server.
+ */
+public class HtmlFetcherTest {
+
+	/**
+	 * The body of every page the tests serve
+	 */
+	private static final String PAGE = "<html><body><p>hello world</p></body></html>";
+
+	/**
+	 * The page as {@link HtmlFetcher#fetch(java.net.URL, int)} returns it
+	 */
+	private static final String FETCHED = "\n" + PAGE + "\n";
+
+	/**
+	 * Reads and drops the whole body
+	 *
+	 * @param html the body
+	 * @throws IOException if unable to read the body
+	 */
+	private static void drain(Reader html) throws IOException {
+		while (html.read() >= 0) {
+			continue;
+		}
+	}
+
+	/**
+	 * Pages from one host are fetched on one connection.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testReused() throws IOException {
+		try (FixtureServer server = new FixtureServer(request -> FixtureServer.response("200 OK", "text/html", PAGE))) {
+			for (int i = 0; i < 5; i++) {
+				assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/" + i), 0));
+			}
+			assertEquals(5, server.numRequests());
+			assertEquals(1, server.numConnections());
+		}
+	}
+
+	/**
+	 * A chunked body is read in full and the connection is reused after it.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testChunked() throws IOException {
+		try (FixtureServer server = new FixtureServer(request -> FixtureServer.chunked("text/html", PAGE, 7))) {
+			assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/a"), 0));
+			assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/b"), 0));
+			assertEquals(1, server.numConnections());
+		}
+	}
+
+	/**
+	 * A content length that is not a number fails the fetch instead of throwing.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testBadLength() throws IOException {
+		byte[] broken = FixtureServer.response("200 OK", "text/html", "Content-Length: lots", PAGE.getBytes(UTF_8));
+		try (FixtureServer server = new FixtureServer(request -> request.getPath().equals("/bad") ? broken
+				: FixtureServer.response("200 OK", "text/html", PAGE))) {
+			assertNull(HtmlFetcher.fetch(server.url("/bad"), 0));
+			assertThrows(ProtocolException.class, () -> HtmlFetcher.fetch(server.url("/bad"), 0, HtmlFetcherTest::drain));
+			assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/good"), 0));
+		}
+	}
+
+	/**
+	 * A negative content length fails the fetch instead of reading to the end.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testNegativeLength() throws IOException {
+		byte[] broken = FixtureServer.response("200 OK", "text/html", "Content-Length: -5", PAGE.getBytes(UTF_8));
+		try (FixtureServer server = new FixtureServer(request -> broken)) {
+			assertNull(HtmlFetcher.fetch(server.url("/bad"), 0));
+		}
+	}
+
+	/**
+	 * A chunk size that is not hexadecimal fails the fetch instead of throwing.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testBadChunk() throws IOException {
+		byte[] broken = FixtureServer.response("200 OK", "text/html", "Transfer-Encoding: chunked",
+				"zz\r\nhello\r\n0\r\n\r\n".getBytes(UTF_8));
+		try (FixtureServer server = new FixtureServer(request -> broken)) {
+			assertNull(HtmlFetcher.fetch(server.url("/bad"), 0));
+			assertThrows(ProtocolException.class, () -> HtmlFetcher.fetch(server.url("/bad"), 0, HtmlFetcherTest::drain));
+		}
+	}
+
+	/**
+	 * A status line without a status code is not read as a page instead of
+	 * throwing.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testBadStatus() throws IOException {
+		try (FixtureServer server = new FixtureServer(request -> "HTTP/1.1\r\n\r\n".getBytes(UTF_8))) {
+			assertEquals("", HtmlFetcher.fetch(server.url("/bad"), 0));
+		}
+	}
+
+	/**
+	 * A content type header sent in lower case still marks the page as html and
+	 * names its charset.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testLowerCaseType() throws IOException {
+		String page = "<html><body><p>caf\u00e9</p></body></html>";
+		byte[] body = page.getBytes(ISO_8859_1);
+		byte[] response = FixtureServer.response("200 OK", null,
+				"content-type: text/html; charset=ISO-8859-1\r\ncontent-length: " + body.length, body);
+		try (FixtureServer server = new FixtureServer(request -> response)) {
+			assertEquals("\n" + page + "\n", HtmlFetcher.fetch(server.url("/a"), 0));
+		}
+	}
+
+	/**
+	 * A kept-alive connection the server closed is replaced by a new one once.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testRetried() throws IOException {
+		// every connection only answers its first request
+		try (FixtureServer server = new FixtureServer(request -> request.getNumber() > 0 ? null
+				: FixtureServer.response("200 OK", "text/html", PAGE))) {
+			assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/a"), 0));
+			assertEquals(FETCHED, HtmlFetcher.fetch(server.url("/b"), 0));
+			assertEquals(2, server.numConnections());
+		}
+	}
+}
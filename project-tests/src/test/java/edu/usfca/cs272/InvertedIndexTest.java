@@ -0,0 +1,101 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests replacing and removing the words of one location of an index.
+ */
+public class InvertedIndexTest {
+
+	/**
+	 * Returns an index of the words of one location
+	 *
+	 * @param location the location
+	 * @param words    the words in order
+	 * @return the index
+	 */
+	private static InvertedIndex page(String location, String... words) {
+		InvertedIndex page = new InvertedIndex();
+		page.addAll(List.of(words), location, 1);
+		return page;
+	}
+
+	/**
+	 * Returns an index with two locations that share a word
+	 *
+	 * @return the index
+	 */
+	private static ThreadSafeInvertedIndex twoPages() {
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+		index.addDistinct(page("a", "apple", "shared", "old"));
+		index.addDistinct(page("b", "banana", "shared"));
+		return index;
+	}
+
+	/**
+	 * The old words of a replaced location are gone, while the words of other
+	 * locations stay.
+	 */
+	@Test
+	public void testReplace() {
+		ThreadSafeInvertedIndex index = twoPages();
+		List<String> kept = index.replaceLocation("a", List.of("apple", "old", "shared"), page("a", "shared", "new"));
+		assertEquals(List.of("new", "shared"), kept);
+		assertFalse(index.hasWord("old"));
+		assertFalse(index.hasWord("apple"));
+		assertEquals(Set.of(1), index.viewPositions("shared", "a"));
+		assertEquals(Set.of(2), index.viewPositions("new", "a"));
+		assertTrue(index.hasLocation("shared", "b"));
+		assertEquals(2, index.fileCounts("a"));
+		assertEquals(2, index.numCounts());
+	}
+
+	/**
+	 * Replacing without knowing the old words looks through the whole index
+	 * instead and gives the same index.
+	 */
+	@Test
+	public void testReplaceUnknownWords() {
+		ThreadSafeInvertedIndex known = twoPages();
+		ThreadSafeInvertedIndex unknown = twoPages();
+		known.replaceLocation("a", List.of("apple", "old", "shared"), page("a", "shared", "new"));
+		unknown.replaceLocation("a", null, page("a", "shared", "new"));
+		assertEquals(known.viewWords(), unknown.viewWords());
+		assertEquals(known.viewCounts(), unknown.viewCounts());
+	}
+
+	/**
+	 * A location that was not indexed yet is only added.
+	 */
+	@Test
+	public void testReplaceNew() {
+		ThreadSafeInvertedIndex index = twoPages();
+		index.replaceLocation("c", null, page("c", "cherry"));
+		assertEquals(3, index.numCounts());
+		assertTrue(index.hasLocation("shared", "a"));
+		assertTrue(index.hasWord("cherry"));
+	}
+
+	/**
+	 * Removing a location drops its words and count, and every change moves the
+	 * generation on.
+	 */
+	@Test
+	public void testRemove() {
+		ThreadSafeInvertedIndex index = twoPages();
+		long generation = index.generation();
+		index.removeLocation("b", List.of("banana", "shared"));
+		assertFalse(index.hasWord("banana"));
+		assertFalse(index.hasCount("b"));
+		assertTrue(index.hasLocation("shared", "a"));
+		assertEquals(1, index.numLocations("shared"));
+		assertTrue(index.generation() != generation);
+	}
+}
@@ -0,0 +1,109 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests loading an index from the JSON it was written to.
+ */
+public class JsonReaderTest {
+
+	/**
+	 * Writes the index and returns the bytes written
+	 *
+	 * @param index the index to write
+	 * @return the JSON bytes
+	 * @throws IOException if unable to write
+	 */
+	private static byte[] write(InvertedIndex index) throws IOException {
+		Path output = Files.createTempFile("index", ".json");
+		try {
+			index.writeIndex(output);
+			return Files.readAllBytes(output);
+		} finally {
+			Files.delete(output);
+		}
+	}
+
+	/**
+	 * Loads an index from JSON
+	 *
+	 * @param json the JSON of the index
+	 * @return the index loaded
+	 * @throws IOException if unable to read or parse the JSON
+	 */
+	private static InvertedIndex load(byte[] json) throws IOException {
+		Path input = Files.createTempFile("index", ".json");
+		try {
+			Files.write(input, json);
+			InvertedIndex index = new InvertedIndex();
+			index.loadIndex(input);
+			return index;
+		} finally {
+			Files.delete(input);
+		}
+	}
+
+	/**
+	 * An index written, loaded and written again is the same byte for byte,
+	 * including words and locations outside of ASCII and characters that are
+	 * escaped.
+	 *
+	 * @throws IOException if unable to write or load
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		Random random = new Random(28);
+		List<String> words = List.of("apple", "café", "日本", "smile😀", "tab\tquote\"slash\\");
+		List<String> locations = List.of("a.txt", "dir/b \"quoted\".txt", "https://example.com/über?q=1&r=2",
+				"back\\slash.txt");
+		for (int i = 0; i < 500; i++) {
+			index.addToIndex(words.get(random.nextInt(words.size())) + random.nextInt(20),
+					locations.get(random.nextInt(locations.size())), random.nextInt(100_000) + 1);
+		}
+		byte[] first = write(index);
+		InvertedIndex loaded = load(first);
+		byte[] second = write(loaded);
+		assertEquals(new String(first, UTF_8), new String(second, UTF_8));
+		assertEquals(index.viewCounts(), loaded.viewCounts());
+	}
+
+	/**
+	 * Unicode escapes are decoded, and an escaped surrogate pair becomes the
+	 * single character it stands for.
+	 *
+	 * @throws IOException if unable to load
+	 */
+	@Test
+	public void testEscapes() throws IOException {
+		String json = """
+				{
+				  "caf\\u00e9": {
+				    "a.txt": [1]
+				  },
+				  "smile\\ud83d\\ude00": {
+				    "a.txt": [2]
+				  },
+				  "tab\\tquote\\"": {
+				    "a.txt": [3]
+				  }
+				}
+				""";
+		InvertedIndex index = load(json.getBytes(UTF_8));
+		assertTrue(index.hasWord("café"));
+		assertTrue(index.hasWord("smile😀"));
+		assertTrue(index.hasWord("tab\tquote\""));
+		assertEquals(Set.of(2), index.viewPositions("smile😀", "a.txt"));
+	}
+}
@@ -0,0 +1,96 @@
+package edu.usfca.cs272;
+
+import java.util.Random;
+
+/**
+ * Serves a synthetic graph of linked pages from a {@link FixtureServer}. Page
+ * {@code /g/N.html} links to the next page and a few others picked from a
+ * random generator seeded by N, so the same graph is served every time. Some
+ * pages also link to an image, a missing page and a redirect, so crawls meet
+ * the same failures a real site has.
+ */
+public class LinkGraph implements FixtureServer.Responder {
+
+	/**
+	 * The number of random links on every page
+	 */
+	private static final int LINKS = 4;
+
+	/**
+	 * The number of random words on every page
+	 */
+	private static final int WORDS = 30;
+
+	/**
+	 * The number of pages in the graph
+	 */
+	private final int pages;
+
+	/**
+	 * Initializes a graph
+	 *
+	 * @param pages the number of pages in the graph
+	 */
+	public LinkGraph(int pages) {
+		this.pages = pages;
+	}
+
+	/**
+	 * Returns the html of a page
+	 *
+	 * @param number the number of the page
+	 * @return the html
+	 */
+	private String page(int number) {
+		Random random = new Random(number);
+		StringBuilder html = new StringBuilder();
+		html.append("<html><head><title>node ").append(number).append("</title></head><body><p>");
+		for (int i = 0; i < WORDS; i++) {
+			html.append("word").append(random.nextInt(50)).append(' ');
+		}
+		html.append("</p>");
+		link(html, "/g/" + ((number + 1) % pages) + ".html");
+		for (int i = 0; i < LINKS; i++) {
+			link(html, "/g/" + random.nextInt(pages) + ".html");
+		}
+		if (number % 17 == 5) {
+			link(html, "/g/img" + number + ".png");
+			link(html, "/g/gone" + number + ".html");
+			link(html, "/g/moved" + number + ".html");
+		}
+		return html.append("</body></html>").toString();
+	}
+
+	/**
+	 * Adds a link to the html
+	 *
+	 * @param html the html so far
+	 * @param path the path to link to
+	 */
+	private static void link(StringBuilder html, String path) {
+		html.append("<a href=\"").append(path).append("\">link</a> ");
+	}
+
+	@Override
+	public byte[] respond(FixtureServer.Request request) {
+		String name = request.getPath().substring(request.getPath().lastIndexOf('/') + 1);
+		if (name.startsWith("moved")) {
+			return FixtureServer.response("301 Moved Permanently", null,
+					"Location: /g/" + name.substring(5) + "\r\nContent-Length: 0", new byte[0]);
+		}
+		if (name.startsWith("img")) {
+			return FixtureServer.response("200 OK", "image/png", "PNG");
+		}
+		if (name.endsWith(".html")) {
+			try {
+				int number = Integer.parseInt(name.substring(0, name.length() - 5));
+				if ((number >= 0) && (number < pages)) {
+					return FixtureServer.response("200 OK", "text/html; charset=utf-8", page(number));
+				}
+			} catch (NumberFormatException e) {
+				// not a page of the graph
+			}
+		}
+		return FixtureServer.response("404 Not Found", "text/html", "<html>gone</html>");
+	}
+}
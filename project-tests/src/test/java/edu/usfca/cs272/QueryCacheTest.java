@@ -0,0 +1,58 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.usfca.cs272.InvertedIndex.SearchResult;
+
+/**
+ * Tests that cached search results follow the generation of the index.
+ */
+public class QueryCacheTest {
+
+	/**
+	 * Results are cached for the generation they were computed against.
+	 */
+	@Test
+	public void testHit() {
+		QueryCache cache = new QueryCache();
+		assertNull(cache.get("p:a", 1));
+		cache.put("p:a", new ArrayList<SearchResult>(), 1);
+		assertNotNull(cache.get("p:a", 1));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	/**
+	 * A newer generation drops the results of older ones.
+	 */
+	@Test
+	public void testNewer() {
+		QueryCache cache = new QueryCache();
+		cache.put("p:a", new ArrayList<SearchResult>(), 1);
+		assertNull(cache.get("p:a", 2));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * A request that read an older generation does not move the cache back, so
+	 * the newer results stay and the older ones are not stored.
+	 */
+	@Test
+	public void testOlder() {
+		QueryCache cache = new QueryCache();
+		cache.put("p:a", new ArrayList<SearchResult>(), 2);
+		assertNull(cache.get("p:a", 1));
+		List<SearchResult> stale = cache.put("p:b", new ArrayList<SearchResult>(), 1);
+		assertNotNull(stale);
+		assertNull(cache.get("p:b", 2));
+		assertNotNull(cache.get("p:a", 2));
+		assertEquals(1, cache.size());
+	}
+}
@@ -0,0 +1,286 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that crawling a synthetic link graph builds the same index whether the
+ * pages are fetched on the work queue or in the background, and that crawling
+ * again only indexes the pages that changed.
+ */
+public class WebCrawlerTest {
+
+	/**
+	 * Serves a few linked pages that tests can change between crawls
+	 */
+	private static class ChangingSite implements FixtureServer.Responder {
+
+		/**
+		 * The number of 304 responses sent so far
+		 */
+		private final AtomicInteger notModified;
+
+		/**
+		 * The html of every page by path
+		 */
+		private final ConcurrentHashMap<String, String> pages;
+
+		/**
+		 * Whether pages are sent with an ETag and conditional requests are
+		 * answered
+		 */
+		private final boolean validators;
+
+		/**
+		 * Initializes the site. The first page links to every other page.
+		 *
+		 * @param size       the number of pages
+		 * @param validators whether to send an ETag and answer conditional requests
+		 */
+		public ChangingSite(int size, boolean validators) {
+			this.notModified = new AtomicInteger();
+			this.pages = new ConcurrentHashMap<String, String>();
+			this.validators = validators;
+			StringBuilder links = new StringBuilder();
+			for (int i = 0; i < size; i++) {
+				links.append("<a href=\"/s/").append(i).append(".html\">next</a> ");
+			}
+			for (int i = 0; i < size; i++) {
+				change(i, "page " + i + " words " + (i == 0 ? links : ""));
+			}
+		}
+
+		/**
+		 * Changes the text of a page
+		 *
+		 * @param number the number of the page
+		 * @param text   the text of the page, which may have links in it
+		 */
+		public void change(int number, String text) {
+			pages.put("/s/" + number + ".html", "<html><body><p>" + text + "</p></body></html>");
+		}
+
+		/**
+		 * Removes a page, so it is not found anymore
+		 *
+		 * @param number the number of the page
+		 */
+		public void remove(int number) {
+			pages.remove("/s/" + number + ".html");
+		}
+
+		@Override
+		public byte[] respond(FixtureServer.Request request) {
+			String html = pages.get(request.getPath());
+			if (html == null) {
+				return FixtureServer.response("404 Not Found", "text/html", "<html>gone</html>");
+			}
+			if (!validators) {
+				return FixtureServer.response("200 OK", "text/html", html);
+			}
+			String etag = "\"" + Integer.toHexString(html.hashCode()) + "\"";
+			if (etag.equals(request.getHeader("If-None-Match"))) {
+				notModified.incrementAndGet();
+				return FixtureServer.response("304 Not Modified", null, "ETag: " + etag + "\r\nContent-Length: 0",
+						new byte[0]);
+			}
+			byte[] body = html.getBytes(UTF_8);
+			return FixtureServer.response("200 OK", "text/html", "ETag: " + etag + "\r\nContent-Length: " + body.length,
+					body);
+		}
+	}
+
+	/**
+	 * The number of pages in the graph
+	 */
+	private static final int PAGES = 200;
+
+	/**
+	 * Serves the graph
+	 */
+	private static FixtureServer server;
+
+	/**
+	 * Starts the server.
+	 *
+	 * @throws IOException if unable to listen
+	 */
+	@BeforeAll
+	public static void startServer() throws IOException {
+		server = new FixtureServer(new LinkGraph(PAGES));
+	}
+
+	/**
+	 * Stops the server.
+	 *
+	 * @throws IOException if unable to stop
+	 */
+	@AfterAll
+	public static void stopServer() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Crawls the graph and returns the index and counts as JSON
+	 *
+	 * @param fetcher the fetcher to use, or null to fetch on the work queue
+	 * @param maxCrawl the most links to crawl
+	 * @return the index JSON followed by the counts JSON
+	 * @throws IOException if unable to write the output
+	 */
+	private static String crawl(AsyncFetcher fetcher, int maxCrawl) throws IOException {
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+		crawl(server.url("/g/0.html"), index, fetcher, maxCrawl, null);
+		return write(index);
+	}
+
+	/**
+	 * Crawls from a seed into the index
+	 *
+	 * @param seed     the link to start from
+	 * @param index    the index to add to
+	 * @param fetcher  the fetcher to use, or null to fetch on the work queue
+	 * @param maxCrawl the most links to crawl
+	 * @param history  the versions of pages already indexed, or null
+	 * @return the crawler once it is done
+	 */
+	private static WebCrawler crawl(URL seed, ThreadSafeInvertedIndex index, AsyncFetcher fetcher, int maxCrawl,
+			CrawlHistory history) {
+		WorkQueue workers = new WorkQueue(4);
+		try {
+			WebCrawler crawler = new WebCrawler(workers, index, maxCrawl, fetcher, CrawlFrontier.DEFAULT_PER_HOST, 0,
+					history, false);
+			crawler.buildIndex(seed);
+			return crawler;
+		} finally {
+			workers.join();
+		}
+	}
+
+	/**
+	 * Returns the index and counts as JSON
+	 *
+	 * @param index the index to write
+	 * @return the index JSON followed by the counts JSON
+	 * @throws IOException if unable to write the output
+	 */
+	private static String write(ThreadSafeInvertedIndex index) throws IOException {
+		Path output = Files.createTempFile("index", ".json");
+		Path counts = Files.createTempFile("counts", ".json");
+		try {
+			index.writeIndex(output);
+			index.writeCounts(counts);
+			return Files.readString(output) + Files.readString(counts);
+		} finally {
+			Files.delete(output);
+			Files.delete(counts);
+		}
+	}
+
+	/**
+	 * Every page of the graph is reached, and both engines index the same pages
+	 * the same way.
+	 *
+	 * @throws IOException if unable to write the output
+	 */
+	@Test
+	public void testWholeGraph() throws IOException {
+		String blocking = crawl(null, PAGES * 2);
+		String async = crawl(new AsyncFetcher(64, 2), PAGES * 2);
+		assertTrue(blocking.contains("/g/" + (PAGES - 1) + ".html"));
+		assertEquals(blocking, async);
+	}
+
+	/**
+	 * A crawl that stops early indexes the same first pages with either engine.
+	 *
+	 * @throws IOException if unable to write the output
+	 */
+	@Test
+	public void testLimited() throws IOException {
+		String blocking = crawl(null, 1);
+		String async = crawl(new AsyncFetcher(64, 2), 1);
+		assertTrue(blocking.contains("/g/0.html"));
+		assertEquals(blocking, async);
+	}
+
+	/**
+	 * Crawling again sends conditional requests and leaves the index alone when
+	 * nothing changed. Once a page changes or goes missing, only that page is
+	 * replaced or removed, and the index matches a fresh crawl.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testRecrawl() throws IOException {
+		for (boolean async : new boolean[] { false, true }) {
+			ChangingSite site = new ChangingSite(10, true);
+			try (FixtureServer changing = new FixtureServer(site)) {
+				URL seed = changing.url("/s/0.html");
+				CrawlHistory history = new CrawlHistory();
+				ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+				crawl(seed, index, async ? new AsyncFetcher(8, 1) : null, 100, history);
+				String first = write(index);
+				long generation = index.generation();
+
+				WebCrawler again = crawl(seed, index, async ? new AsyncFetcher(8, 1) : null, 100, history);
+				assertEquals(10, again.numUnchanged());
+				assertEquals(0, again.numFetched());
+				assertEquals(10, site.notModified.get());
+				assertEquals(generation, index.generation());
+				assertEquals(first, write(index));
+
+				site.change(3, "page three has new words");
+				site.remove(7);
+				WebCrawler changed = crawl(seed, index, async ? new AsyncFetcher(8, 1) : null, 100, history);
+				assertEquals(1, changed.numFetched());
+				assertEquals(8, changed.numUnchanged());
+				assertEquals(1, changed.numFailed());
+				assertFalse(index.hasCount(changing.url("/s/7.html").toString()));
+				assertNull(history.get(changing.url("/s/7.html").toString()));
+
+				ThreadSafeInvertedIndex fresh = new ThreadSafeInvertedIndex();
+				crawl(seed, fresh, null, 100, null);
+				assertEquals(write(fresh), write(index));
+			}
+		}
+	}
+
+	/**
+	 * A page sent again without any validators is not indexed again if its words
+	 * did not change.
+	 *
+	 * @throws IOException if the server fails
+	 */
+	@Test
+	public void testSameHash() throws IOException {
+		ChangingSite site = new ChangingSite(5, false);
+		try (FixtureServer changing = new FixtureServer(site)) {
+			URL seed = changing.url("/s/0.html");
+			CrawlHistory history = new CrawlHistory();
+			ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+			crawl(seed, index, null, 100, history);
+			long generation = index.generation();
+
+			WebCrawler again = crawl(seed, index, null, 100, history);
+			assertEquals(5, again.numUnchanged());
+			assertEquals(0, again.numFetched());
+			assertEquals(0, site.notModified.get());
+			assertEquals(generation, index.generation());
+		}
+	}
+}